@@ -1,14 +1,23 @@
 import SyntacticalAnalyzer.ExpressionParser;
+import SyntacticalAnalyzer.JsonTreeWriter;
 import SyntacticalAnalyzer.Parser;
 import SyntacticalAnalyzer.SyntaxException;
+import SyntacticalAnalyzer.TextTreeWriter;
+import Server.CompileClient;
+import Server.CompileServer;
+import Tokens.TokenRing;
+import Tokens.TokenWriter;
 import Tokens.Tokenizer;
 
 import javax.script.ScriptException;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
 
@@ -26,21 +35,30 @@ public class Main {
                     "Copyright (c) 2017 by Donskoy Ilya");
             System.out.println("pascal_compiler.jar [options] <inputfile> " +
                     "use -l option to obtain a table of tokens" +
-                    "use -s option to obtain a parse tree");
+                    "use -s option to obtain a parse tree" +
+                    "use -tj option to obtain a parse tree in JSON" +
+                    "use -tf or -td option to parse bodies of functions in parallel or on demand" +
+                    "use -tc or -ts option to take tokens from a token file or scan them in parallel" +
+                    "use -server option to start a compile server, -ct, -ctj and -cs to use it");
         }
-        else if (args.length == 1)
+        else if (args.length == 1 && !args[0].equals("-server") && !args[0].equals("-cs"))
             System.out.println("pascal_compiler.jar [options] <inputfile>" +
                     "use -l option to obtain a table of tokens" +
-                    "use -s option to obtain a parse tree");
+                    "use -s option to obtain a parse tree" +
+                    "use -tj option to obtain a parse tree in JSON" +
+                    "use -tf or -td option to parse bodies of functions in parallel or on demand" +
+                    "use -tc or -ts option to take tokens from a token file or scan them in parallel" +
+                    "use -server option to start a compile server, -ct, -ctj and -cs to use it");
         else switch (args[0]) {
                 case "-l":
+                    TokenWriter writer = new TokenWriter(System.out);
                     try {
                         Tokenizer tokenizer = new Tokenizer(args[1]);
-                        while (tokenizer.Next())
-                            tokenizer.print();
+                        tokenizer.tokenize(writer);
                     } catch (Exception e) {
-                        System.out.println(e.getMessage());
+                        writer.println(e.getMessage());
                     } finally {
+                        writer.flush();
                         System.out.close();
                     }
                     break;
@@ -57,15 +75,61 @@ public class Main {
 //                    }
 //                    break;
                 case "-t":
+                case "-tp": // scanner on a thread of its own
+                case "-tc": // tokens replayed from the token file next to the source, or kept there
+                case "-ts": // tokens scanned in chunks of lines side by side on the common pool
+                case "-tf": // bodies of functions parsed side by side on the common pool
+                case "-td": // bodies of functions parsed as the tree is written
+                case "-tj":
                     try {
-                        Parser parser1 = new Parser(args[1]);
-                        Parser.Type type = parser1.parse();
-                        System.out.println(type.toString());
+                        Parser parser1;
+                        switch (args[0]) {
+                            case "-tp":
+                                parser1 = new Parser(TokenRing.scan(args[1]));
+                                break;
+                            case "-tc":
+                                parser1 = new Parser(new Tokenizer(args[1]).tokenizeCached());
+                                break;
+                            case "-ts":
+                                parser1 = new Parser(new Tokenizer(args[1]).tokenizeParallel());
+                                break;
+                            case "-tf":
+                            case "-td":
+                                parser1 = new Parser(new Tokenizer(args[1]).tokenize());
+                                break;
+                            default:
+                                parser1 = new Parser(args[1]);
+                        }
+                        Parser.Type type;
+                        try {
+                            if (args[0].equals("-tf"))
+                                type = parser1.parse(ForkJoinPool.commonPool());
+                            else if (args[0].equals("-td"))
+                                type = parser1.parseDeclarations();
+                            else
+                                type = parser1.parse();
+                        } finally {
+                            if (parser1.getLexicalError() != null) // it ended the tokens the parser got
+                                System.out.println(parser1.getLexicalError());
+                        }
+                        if (args[0].equals("-tj"))
+                            new JsonTreeWriter(System.out).write(type);
+                        else if (args[0].equals("-td")) { // nothing is printed before a body with an error
+                            ByteArrayOutputStream tree = new ByteArrayOutputStream();
+                            new TextTreeWriter(tree).write(type);
+                            System.out.write(tree.toByteArray(), 0, tree.size());
+                        }
+                        else
+                            new TextTreeWriter(System.out).write(type);
                         //type.print(null);
                         //node.print();
                     } catch (SyntaxException e) {
                         //e.printStackTrace();
                         System.out.println(e.getMessage());
+                    } catch (IllegalStateException e) { // of a body parsed on demand
+                        if (!(e.getCause() instanceof SyntaxException))
+                            throw e;
+                        System.out.println(e.getMessage());
                     } catch (ScriptException e) {
                             //e.printStackTrace();
                             System.out.println(e.getMessage());
@@ -73,7 +137,34 @@ public class Main {
                         System.out.close();
                     }
                     break;
+                case "-server": // warm compiler on the loopback, the port is -Dpascal.server.port
+                    try (CompileServer server = new CompileServer(serverPort())) {
+                        server.warmUp(2000);
+                        System.out.println("Compile server on port " + server.getPort());
+                        server.serve();
+                    } catch (IOException e) {
+                        System.out.println(e.getMessage());
+                    }
+                    break;
+                case "-ct":
+                case "-ctj":
+                case "-cs":
+                    try {
+                        CompileClient client = new CompileClient(serverPort());
+                        byte status = args[0].equals("-cs") ? client.printCounters(System.out)
+                                : client.compile(args[0].equals("-ctj") ? CompileServer.JSON_TREE : CompileServer.TEXT_TREE,
+                                        args[1], System.out);
+                        System.exit(status);
+                    } catch (IOException e) {
+                        System.out.println(e.getMessage());
+                        System.exit(CompileServer.FAILED);
+                    }
+                    break;
                 // some others args ....
             }
     }
+
+    private static int serverPort() {
+        return Integer.getInteger("pascal.server.port", CompileServer.DEFAULT_PORT);
+    }
 }
@@ -0,0 +1,50 @@
+package Server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Sends one request to a CompileServer on this machine and prints the text it replies with
+public class CompileClient {
+    private final int port;
+
+    public CompileClient(int port) { this.port = port; }
+
+    // the tree of the file in the layout of the mode, the status of the reply is returned
+    public byte compile(byte mode, String filePath, PrintStream out) throws IOException {
+        return request(mode, Files.readAllBytes(Paths.get(filePath)), out);
+    }
+
+    public byte printCounters(PrintStream out) throws IOException {
+        return request(CompileServer.COUNTERS, null, out);
+    }
+
+    private byte request(byte mode, byte[] source, PrintStream out) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            request.writeByte(mode);
+            if (source != null) {
+                request.writeInt(source.length);
+                request.write(source);
+            }
+            request.flush();
+            socket.shutdownOutput();
+            DataInputStream reply = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte status = reply.readByte();
+            byte[] text = new byte[reply.readInt()];
+            reply.readFully(text);
+            out.print(new String(text, StandardCharsets.UTF_8));
+            out.flush();
+            return status;
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package Server;
+
+import SyntacticalAnalyzer.Compilation;
+import SyntacticalAnalyzer.Diagnostic;
+import SyntacticalAnalyzer.JsonTreeWriter;
+import SyntacticalAnalyzer.PascalCompiler;
+import SyntacticalAnalyzer.TextTreeWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Compiles programs sent over a loopback socket, so one warm JVM serves many runs of the command line.
+// A connection carries one request: a mode byte, and for a tree the source as an int length and its
+// bytes. The reply is a status byte and a text as an int length and its UTF-8 bytes, for a tree the
+// text Main prints for the source. Compilations run on a pool as large as the machine, an unknown mode
+// or a source over the size limit is turned down and one which runs past the timeout gets no tree and
+// is stopped. A client silent for as long as the timeout is dropped
+public class CompileServer implements Closeable {
+    public static final int DEFAULT_PORT = 7317;
+    public static final byte TEXT_TREE = 't', JSON_TREE = 'j', COUNTERS = 's';
+    public static final byte OK = 0, FAILED = 1, REJECTED = 2, TIMED_OUT = 3;
+    private static final int CONNECTIONS = 64;
+    // a small program with a bit of everything, compiled on start until the compiler is hot
+    private static final String WARM_UP =
+            "program warm;\n" +
+            "type point = record x, y: integer; end;\n" +
+            "var a: array[1..10] of integer; p: point; i: integer; d: double;\n" +
+            "function f(n: integer; e: double): integer;\n" +
+            "var k: integer;\n" +
+            "begin\n" +
+            "  k := n * 3 + 7 div 2 - (n mod 5);\n" +
+            "  while k > 0 do begin if k mod 2 = 0 then k := k - 2 else k := k - 1 end;\n" +
+            "  result := k + 1\n" +
+            "end;\n" +
+            "begin\n" +
+            "  for i := 1 to 10 do a[i] := f(i, 2.5);\n" +
+            "  p.x := a[1]; d := p.x * 1.5e1\n" +
+            "end.\n";
+
+    private final ServerSocket socket;
+    private final ExecutorService connections = Executors.newFixedThreadPool(CONNECTIONS);
+    private final ExecutorService compilers =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final long timeoutMillis;
+    private final int maxSourceBytes;
+    private final long started = System.nanoTime();
+    private final AtomicLong compiled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong latencyNanos = new AtomicLong(); // of all requests answered with a tree
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public CompileServer(int port, long timeoutMillis, int maxSourceBytes) throws IOException {
+        socket = new ServerSocket(port, CONNECTIONS, InetAddress.getLoopbackAddress());
+        this.timeoutMillis = timeoutMillis;
+        this.maxSourceBytes = maxSourceBytes;
+    }
+
+    public CompileServer(int port) throws IOException {
+        this(port, 10_000, 4 << 20);
+    }
+
+    public int getPort() { return socket.getLocalPort(); }
+
+    // the compiler is run over a sample until the JIT has caught up with it
+    public void warmUp(int rounds) {
+        for (int i = 0; i < rounds; i++)
+            treeText(WARM_UP.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    // takes connections until the server is closed
+    public void serve() throws IOException {
+        try {
+            while (true) {
+                Socket connection = socket.accept();
+                connections.execute(() -> answer(connection));
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed())
+                throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        connections.shutdownNow();
+        compilers.shutdownNow();
+    }
+
+    private void answer(Socket connection) {
+        try (Socket socket = connection) {
+            socket.setSoTimeout((int)Math.min(timeoutMillis, Integer.MAX_VALUE)); // a stalled client is dropped
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            byte mode = in.readByte();
+            if (mode == COUNTERS) {
+                reply(out, OK, counters());
+                return;
+            }
+            if (mode != TEXT_TREE && mode != JSON_TREE) {
+                rejected.incrementAndGet();
+                reply(out, REJECTED, String.format("Unknown mode %d%n", mode));
+                drain(in);
+                return;
+            }
+            int length = in.readInt();
+            if (length < 0 || length > maxSourceBytes) {
+                rejected.incrementAndGet();
+                reply(out, REJECTED, String.format("Source of %d bytes is over the limit of %d%n", length, maxSourceBytes));
+                drain(in);
+                return;
+            }
+            byte[] source = new byte[length];
+            in.readFully(source);
+            long start = System.nanoTime();
+            Future<Reply> compilation = compilers.submit(() -> treeText(source, mode == JSON_TREE));
+            try {
+                Reply result = compilation.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                count(result.status == OK ? compiled : failed, System.nanoTime() - start);
+                reply(out, result.status, result.text);
+            } catch (TimeoutException e) {
+                compilation.cancel(true);
+                timedOut.incrementAndGet();
+                reply(out, TIMED_OUT, String.format("Compilation is over the limit of %d ms%n", timeoutMillis));
+            } catch (ExecutionException e) {
+                count(failed, System.nanoTime() - start);
+                reply(out, FAILED, e.getCause() + System.lineSeparator());
+            }
+        } catch (IOException | InterruptedException e) {
+            // the client is gone or the server is closing, there is no one to answer
+        }
+    }
+
+    // The client reads the reply once it has sent all of the source, what it sends is read and dropped
+    // so the reply is not lost to a reset. No more than the size limit is read
+    private void drain(DataInputStream in) throws IOException {
+        byte[] skipped = new byte[1 << 16];
+        int count;
+        for (long drained = 0; drained < maxSourceBytes && (count = in.read(skipped)) != -1; drained += count);
+    }
+
+    private static class Reply {
+        final byte status;
+        final String text;
+
+        Reply(byte status, String text) {
+            this.status = status;
+            this.text = text;
+        }
+    }
+
+    // what Main -t or -tj prints for the source: the errors, then the tree if it was parsed
+    private static Reply treeText(byte[] source, boolean isJson) {
+        Compilation compilation = PascalCompiler.compile(ByteBuffer.wrap(source));
+        StringWriter text = new StringWriter();
+        for (Diagnostic diagnostic : compilation.getDiagnostics())
+            text.write(diagnostic.getMessage() + System.lineSeparator());
+        if (compilation.getProgram() != null) {
+            if (isJson)
+                new JsonTreeWriter(text).write(compilation.getProgram());
+            else
+                new TextTreeWriter(text).write(compilation.getProgram());
+        }
+        return new Reply(compilation.hasErrors() ? FAILED : OK, text.toString());
+    }
+
+    private void count(AtomicLong counter, long nanos) {
+        counter.incrementAndGet();
+        latencyNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxLatencyNanos.get()) && !maxLatencyNanos.compareAndSet(max, nanos));
+    }
+
+    private String counters() {
+        long answered = compiled.get() + failed.get();
+        double seconds = (System.nanoTime() - started) / 1e9;
+        return String.format("compiled %d%nfailed %d%nrejected %d%ntimed out %d%n" +
+                        "mean latency %.3f ms%nmax latency %.3f ms%nthroughput %.1f per s%n",
+                compiled.get(), failed.get(), rejected.get(), timedOut.get(),
+                answered == 0 ? 0.0 : latencyNanos.get() / 1e6 / answered, maxLatencyNanos.get() / 1e6,
+                answered / seconds);
+    }
+
+    private static void reply(DataOutputStream out, byte status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(status);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+}
@@ -0,0 +1,51 @@
+package SyntacticalAnalyzer;
+
+// Open addressing map keyed by identifier atoms of Tokens.AtomTable
+class AtomMap<V> {
+    private int[] keys = new int[16]; // atom + 1, 0 is a free slot
+    private Object[] values = new Object[16];
+    private int size = 0;
+
+    private int find(int[] keys, int atom) {
+        int mask = keys.length - 1;
+        int i = atom & mask;
+        while (keys[i] != 0 && keys[i] != atom + 1)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int atom) {
+        int i = find(keys, atom);
+        return keys[i] == 0 ? null : (V)values[i];
+    }
+
+    public boolean containsKey(int atom) { return keys[find(keys, atom)] != 0; }
+
+    public void put(int atom, V value) {
+        int i = find(keys, atom);
+        if (keys[i] == 0) {
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+                i = find(keys, atom);
+            }
+            keys[i] = atom + 1;
+            size++;
+        }
+        values[i] = value;
+    }
+
+    private void resize() {
+        int[] newKeys = new int[keys.length * 2];
+        Object[] newValues = new Object[keys.length * 2];
+        for (int j = 0; j < keys.length; j++) {
+            if (keys[j] == 0)
+                continue;
+            int i = find(newKeys, keys[j] - 1);
+            newKeys[i] = keys[j];
+            newValues[i] = values[j];
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+}
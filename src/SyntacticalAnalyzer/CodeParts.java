@@ -0,0 +1,17 @@
+package SyntacticalAnalyzer;
+
+import Generator.CodeAsm;
+
+// How the code of functions is generated apart and put together, see Parser.SymTable.genCode. The
+// parser asks nothing else of asm beyond the code it adds, labels are named by the parser
+public interface CodeParts {
+
+    // an empty asm for the code of one function declared in the one of asm, it sees the frames of the
+    // functions around and has the loop stacks and constants of its own. It is used by one thread at a time
+    CodeAsm fork(CodeAsm asm);
+
+    // the code of a part at the end of asm, parts are appended in the order of declaration whatever
+    // order they were generated in. The part is not used after
+    void append(CodeAsm asm, CodeAsm part);
+
+}
@@ -0,0 +1,16 @@
+package SyntacticalAnalyzer;
+
+import Generator.CodeAsm;
+
+// Receiver of the code of a program a function at a time while it is parsed, see Parser.parse(CodeSink).
+// The functions are generated into parts it forks
+public interface CodeSink extends CodeParts {
+
+    // asm of the program with the vars of main as its globals, before any of them is declared. The
+    // functions are forked from it, and the code of main goes into it once the parse is done
+    CodeAsm start(Parser.SymTable globals);
+
+    // code of a function declared at the top level, nothing of it is kept by the parser after the call
+    void add(CodeAsm function);
+
+}
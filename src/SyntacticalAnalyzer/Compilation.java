@@ -0,0 +1,23 @@
+package SyntacticalAnalyzer;
+
+import java.util.Collections;
+import java.util.List;
+
+// Outcome of PascalCompiler.compile: the program, null when it failed to parse, and the errors in the order
+// they were met. A lexical error comes before the syntax error it leads to
+public class Compilation {
+    private final Parser.Type program;
+    private final List<Diagnostic> diagnostics;
+
+    Compilation(Parser.Type program, List<Diagnostic> diagnostics) {
+        this.program = program;
+        this.diagnostics = Collections.unmodifiableList(diagnostics);
+    }
+
+    public Parser.Type getProgram() { return program; }
+
+    public List<Diagnostic> getDiagnostics() { return diagnostics; }
+
+    public boolean hasErrors() { return !diagnostics.isEmpty(); }
+
+}
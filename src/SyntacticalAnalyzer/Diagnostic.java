@@ -0,0 +1,38 @@
+package SyntacticalAnalyzer;
+
+// An error met by a compilation, its message reads as the command line prints it. Line and column are
+// where the error stands, -1 when it is not known
+public class Diagnostic {
+
+    public enum Kind {
+        LEXICAL, // ends the tokens like the end of file
+        SYNTAX,  // ends the parse
+        INTERNAL // the compiler failed, the parse ends
+    }
+
+    private final Kind kind;
+    private final String message;
+    private final int line;
+    private final int column;
+
+    public Diagnostic(Kind kind, String message, int line, int column) {
+        this.kind = kind;
+        this.message = message;
+        this.line = line;
+        this.column = column;
+    }
+
+    public Diagnostic(Kind kind, String message) { this(kind, message, -1, -1); }
+
+    public Kind getKind() { return kind; }
+
+    public String getMessage() { return message; }
+
+    public int getLine() { return line; }
+
+    public int getColumn() { return column; }
+
+    @Override
+    public String toString() { return message; }
+
+}
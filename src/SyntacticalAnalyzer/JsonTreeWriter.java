@@ -0,0 +1,173 @@
+package SyntacticalAnalyzer;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+// Tree as one JSON object for tools. A function is {"function", "result", "params", "vars", "body"},
+// a symbol {"name", "kind", "type", "value"}, a type is the name of a scalar one, {"min", "max", "of"}
+// for an array or {"record": [fields]} and a node is {"text", "children"}
+public class JsonTreeWriter extends TreeWriter {
+    private static final byte LIST = 0, FUNCTION = 1, SYMBOL = 2, TYPE = 3, NODE = 4;
+
+    private byte[] kinds = new byte[64]; // of the values entered and not left yet
+    private boolean[] empty = new boolean[64]; // nothing is in a list or a node yet
+    private int depth = 0;
+
+    public JsonTreeWriter(Writer out) { super(out); }
+
+    public JsonTreeWriter(OutputStream out) { super(out); }
+
+    private void push(byte kind) {
+        if (depth == kinds.length) {
+            kinds = Arrays.copyOf(kinds, depth * 2);
+            empty = Arrays.copyOf(empty, depth * 2);
+        }
+        kinds[depth] = kind;
+        empty[depth++] = true;
+    }
+
+    // separates a value from the one before it in a list or in the children of a node
+    private void value() {
+        if (depth == 0)
+            return;
+        int top = depth - 1;
+        if (kinds[top] == NODE)
+            write(empty[top] ? ",\"children\":[" : ",");
+        else if (kinds[top] == LIST && !empty[top])
+            write(',');
+        empty[top] = false;
+    }
+
+    private void string(String text) {
+        write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                write('\\');
+                write(c);
+            }
+            else if (c < 0x20)
+                write(String.format("\\u%04x", (int)c));
+            else
+                write(c);
+        }
+        write('"');
+    }
+
+    @Override
+    public void enterFunction(String name, String result) {
+        value();
+        write("{\"function\":");
+        string(name);
+        write(",\"result\":");
+        string(result);
+        push(FUNCTION);
+    }
+
+    @Override
+    public void leaveFunction() {
+        write('}');
+        depth--;
+    }
+
+    @Override
+    public void enterTable(boolean isParams) {
+        write(isParams ? ",\"params\":[" : ",\"vars\":[");
+        push(LIST);
+    }
+
+    @Override
+    public void leaveTable(boolean isParams) {
+        write(']');
+        depth--;
+    }
+
+    @Override
+    public void enterSymbol(String name, boolean isType, boolean isConst) {
+        value();
+        write("{\"name\":");
+        string(name);
+        write(isType ? ",\"kind\":\"type\"" : isConst ? ",\"kind\":\"const\"" : ",\"kind\":\"var\"");
+        write(",\"type\":");
+        push(SYMBOL);
+    }
+
+    @Override
+    public void leaveSymbol() {
+        write('}');
+        depth--;
+    }
+
+    @Override
+    public void visitType(String category) {
+        value();
+        string(category);
+    }
+
+    @Override
+    public void enterArray(String min, String max) {
+        value();
+        write("{\"min\":");
+        string(min);
+        write(",\"max\":");
+        string(max);
+        write(",\"of\":");
+        push(TYPE);
+    }
+
+    @Override
+    public void leaveArray() {
+        write('}');
+        depth--;
+    }
+
+    @Override
+    public void enterRecord() {
+        value();
+        write("{\"record\":[");
+        push(LIST);
+    }
+
+    @Override
+    public void enterField(String name) {
+        value();
+        write("{\"name\":");
+        string(name);
+        write(",\"type\":");
+        push(TYPE);
+    }
+
+    @Override
+    public void leaveField() {
+        write('}');
+        depth--;
+    }
+
+    @Override
+    public void leaveRecord() {
+        write("]}");
+        depth--;
+    }
+
+    @Override
+    public void enterTree() {
+        write(kinds[depth - 1] == FUNCTION ? ",\"body\":" : ",\"value\":");
+    }
+
+    @Override
+    public void leaveTree() {}
+
+    @Override
+    public void enterNode(String text, boolean isLast) {
+        value();
+        write("{\"text\":");
+        string(text);
+        push(NODE);
+    }
+
+    @Override
+    public void leaveNode() {
+        write(empty[--depth] ? "}" : "]}");
+    }
+}
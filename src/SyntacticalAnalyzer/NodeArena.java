@@ -0,0 +1,184 @@
+package SyntacticalAnalyzer;
+
+import Tokens.Pair;
+import Tokens.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+// Tree of one compilation kept in parallel primitive arrays. A node is a row holding its kind, token
+// row, type id, value and the range of its children, the children of a node are kept together as
+// rows and move to the end when they outgrow their room. Types and the other objects of the nodes
+// are kept once each and referred by their index. Tokens are kept by their parts and built only on
+// request, made up ones are shared by all of their nodes. Nodes of the parser are views on the rows
+class NodeArena {
+    private int nodeCount = 0;
+    private int[] kinds = new int[256];
+    private int[] tokenRows = new int[256];
+    private int[] typeIds = new int[256]; // -1 for a node without a type
+    private long[] values = new long[256];
+    private int[] firstChild = new int[256]; // of the room of the children
+    private int[] childCounts = new int[256];
+
+    private int childRoom = 0;
+    private int[] children = new int[256]; // rows of the children, -1 for a child not set yet
+
+    private final ArrayList<Object> objects = new ArrayList<>();
+    private final IdentityHashMap<Object, Integer> objectIds = new IdentityHashMap<>();
+
+    private int tokenCount = 0;
+    private Pair[] pairs = new Pair[256];
+    private String[] texts = new String[256];
+    private int[] lines = new int[256];
+    private int[] columns = new int[256];
+    private int[] atoms = new int[256];
+    private boolean[] placed = new boolean[256]; // false for a token made up by the parser
+    private final IdentityHashMap<Token, Integer> shared = new IdentityHashMap<>();
+
+    // a row of one token shared by the nodes made up with it
+    int share(Token token) {
+        Integer row = shared.get(token);
+        if (row == null)
+            shared.put(token, row = addToken(token));
+        return row;
+    }
+
+    int addToken(Token token) {
+        if (tokenCount == pairs.length) {
+            int capacity = Math.max(256, tokenCount * 2);
+            pairs   = Arrays.copyOf(pairs, capacity);
+            texts   = Arrays.copyOf(texts, capacity);
+            lines   = Arrays.copyOf(lines, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+            atoms   = Arrays.copyOf(atoms, capacity);
+            placed  = Arrays.copyOf(placed, capacity);
+        }
+        pairs[tokenCount]   = token.getPair();
+        texts[tokenCount]   = token.getText();
+        lines[tokenCount]   = token.getLine();
+        columns[tokenCount] = token.getColumn();
+        atoms[tokenCount]   = token.getAtom();
+        placed[tokenCount]  = token.hasPosition();
+        return tokenCount++;
+    }
+
+    int addNode(int kind, int tokenRow) {
+        if (nodeCount == kinds.length) {
+            int capacity = Math.max(256, nodeCount * 2);
+            kinds       = Arrays.copyOf(kinds, capacity);
+            tokenRows   = Arrays.copyOf(tokenRows, capacity);
+            typeIds     = Arrays.copyOf(typeIds, capacity);
+            values      = Arrays.copyOf(values, capacity);
+            firstChild  = Arrays.copyOf(firstChild, capacity);
+            childCounts = Arrays.copyOf(childCounts, capacity);
+        }
+        kinds[nodeCount] = kind;
+        tokenRows[nodeCount] = tokenRow;
+        typeIds[nodeCount] = -1;
+        return nodeCount++;
+    }
+
+    // room for count more children at the end
+    private int reserve(int count) {
+        if (childRoom + count > children.length)
+            children = Arrays.copyOf(children, Math.max(children.length * 2, childRoom + count));
+        childRoom += count;
+        return childRoom - count;
+    }
+
+    void addChild(int node, int child) {
+        int count = childCounts[node];
+        if (count == 0)
+            firstChild[node] = reserve(2);
+        else if (count >= 2 && (count & count - 1) == 0) { // the room is full, it doubles
+            int first = firstChild[node];
+            if (first + count == childRoom)
+                reserve(count);
+            else {
+                firstChild[node] = reserve(count * 2);
+                System.arraycopy(children, first, children, firstChild[node], count);
+            }
+        }
+        children[firstChild[node] + count] = child;
+        childCounts[node] = count + 1;
+    }
+
+    int getChildCount(int node) { return childCounts[node]; }
+
+    int getChild(int node, int index) {
+        if (index < 0 || index >= childCounts[node])
+            throw new IndexOutOfBoundsException("Index: " + index);
+        return children[firstChild[node] + index];
+    }
+
+    void setChild(int node, int index, int child) {
+        if (index < 0 || index >= childCounts[node])
+            throw new IndexOutOfBoundsException("Index: " + index);
+        children[firstChild[node] + index] = child;
+    }
+
+    int getKind(int node) { return kinds[node]; }
+
+    int getTokenRow(int node) { return tokenRows[node]; }
+
+    long getValue(int node) { return values[node]; }
+
+    void setValue(int node, long value) { values[node] = value; }
+
+    Parser.Type getType(int node) { return typeIds[node] < 0 ? null : (Parser.Type)objects.get(typeIds[node]); }
+
+    void setType(int node, Parser.Type type) { typeIds[node] = type == null ? -1 : intern(type); }
+
+    // the index of an object of the nodes, each is kept once
+    int intern(Object object) {
+        Integer id = objectIds.get(object);
+        if (id == null) {
+            objectIds.put(object, id = objects.size());
+            objects.add(object);
+        }
+        return id;
+    }
+
+    Object getObject(int id) { return objects.get(id); }
+
+    String getText(int tokenRow) { return texts[tokenRow]; }
+
+    Pair getPair(int tokenRow) { return pairs[tokenRow]; }
+
+    Token getToken(int tokenRow) {
+        if (!placed[tokenRow])
+            return new Token(texts[tokenRow], pairs[tokenRow]);
+        return new Token(pairs[tokenRow], lines[tokenRow], columns[tokenRow], texts[tokenRow], atoms[tokenRow]);
+    }
+
+    // rows are cut to the tree once it is parsed, they grow again if more is added
+    void trim() {
+        kinds       = Arrays.copyOf(kinds, nodeCount);
+        tokenRows   = Arrays.copyOf(tokenRows, nodeCount);
+        typeIds     = Arrays.copyOf(typeIds, nodeCount);
+        values      = Arrays.copyOf(values, nodeCount);
+        firstChild  = Arrays.copyOf(firstChild, nodeCount);
+        childCounts = Arrays.copyOf(childCounts, nodeCount);
+        children    = Arrays.copyOf(children, childRoom);
+        pairs   = Arrays.copyOf(pairs, tokenCount);
+        texts   = Arrays.copyOf(texts, tokenCount);
+        lines   = Arrays.copyOf(lines, tokenCount);
+        columns = Arrays.copyOf(columns, tokenCount);
+        atoms   = Arrays.copyOf(atoms, tokenCount);
+        placed  = Arrays.copyOf(placed, tokenCount);
+        objects.trimToSize();
+    }
+
+    // the tree goes all at once, none of its nodes can be used after
+    void release() {
+        kinds = tokenRows = typeIds = firstChild = childCounts = children = lines = columns = atoms = null;
+        values = null;
+        pairs = null;
+        texts = null;
+        placed = null;
+        objects.clear();
+        objectIds.clear();
+        shared.clear();
+    }
+}
@@ -7,21 +7,50 @@ import Generator.RegisterType;
 import Tokens.*;
 import Tokens.Pair;
 
-import java.io.ByteArrayOutputStream;
-import java.io.PrintStream;
+import java.io.StringWriter;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import static Generator.CommandAsm.CommandType;
 import static Tokens.TokenValue.*;
 
 public class Parser {
-    private Tokenizer tokenizer;
+    private TokenBuffer tokens; // from a tokenizer, a stream or a pipelined scanner
+    private AtomTable atoms; // identifiers of this compilation, symbol tables are keyed by them
+    private int resultAtom;
     private static HashMap<TokenValue, String> hashTokens;
-    private Stack<SymTable> tables;
-    private static int loopCount = 0;
-    private static int resultCount = 0; // Result variable in function
-    private static StringBuilder spaces; // For beautiful table output
-    private static boolean exitFound = false; // Exit in function
+    private Scopes tables;
+    private NodeArena arena = new NodeArena(); // the tree, nodes are views on its rows
+    // left operands and operators waiting in the expressions being parsed, see parseExpression
+    private Node[] operands = new Node[16];
+    private int operandCount = 0;
+    private Token[] operators = new Token[16];
+    private int[] operatorPowers = new int[16];
+    private int operatorCount = 0;
+    // tokens of the nodes made up by the parser, each has one row in the arena
+    private static final Token STATEMENTS = new Token("statements", new Pair(TokenType.IDENTIFIER, VARIABLE));
+    private static final Token TYPED_CONSTANT = new Token("typed_constant", new Pair(TokenType.IDENTIFIER, VARIABLE));
+    private static final Token ASSIGN = new Token(":=", new Pair(TokenType.KEYWORD, KEYWORD_ASSIGN));
+    private static final Token IF = new Token("if", new Pair(TokenType.KEYWORD, KEYWORD_IF));
+    private static final Token WHILE = new Token("while", new Pair(TokenType.IDENTIFIER, VARIABLE));
+    private static final Token INDEX = new Token("[]", new Pair(TokenType.SEPARATOR, SEP_BRACKETS_SQUARE_LEFT));
+    private static final Token FIELD = new Token(".", new Pair(TokenType.SEPARATOR, SEP_DOT));
+    private static final Token PARAMS = new Token("params", new Pair(TokenType.IDENTIFIER, VARIABLE));
+    private static final Token CALL = new Token("()", new Pair(TokenType.UNDEFINED, VARIABLE));
+    private int loopCount = 0;
+    private int resultCount = 0; // Result variable in function
+    private boolean exitFound = false; // Exit in function
+    private ArrayList<DeferredBody> deferred; // bodies met while they are left for later, or null
+    private final ArrayList<Parser> bodyParsers = new ArrayList<>(); // of deferred bodies, nodes live in their arenas
+    private Parser lazyParser; // of the bodies asked for by FunctionType.getBody
+    private CodeSink sink; // takes the functions declared at the top level once they are parsed, or null
+    private CodeAsm code; // of the program the sink has started, functions are forked from it
+    // binding powers of binary operators by the ordinal of their token value, 0 for other tokens. All of
+    // them are left associative, unary ones bind tighter and brackets are never reduced by power
+    private static final int BRACKET = 0, LOGICAL = 1, EXPR = 2, TERM = 3, UNARY = 4;
+    private static final int[] bindingPowers = new int[TokenValue.values().length];
 
     static {
         // put all tokens from Tokenizer in a hash
@@ -40,72 +69,147 @@ public class Parser {
         hashTokens.put(CONST_STRING, "const string");
         hashTokens.put(SEP_DOUBLE_DOT, "..");
         hashTokens.put(KEYWORD_ASSIGN, ":=");
-        spaces = new StringBuilder("");
+        for (TokenValue value : new TokenValue[] {OP_GREATER, OP_LESS, OP_GREATER_OR_EQUAL, OP_LESS_OR_EQUAL, OP_EQUAL, OP_NOT_EQUAL})
+            bindingPowers[value.ordinal()] = LOGICAL;
+        for (TokenValue value : new TokenValue[] {OP_PLUS, OP_MINUS, KEYWORD_OR, KEYWORD_XOR})
+            bindingPowers[value.ordinal()] = EXPR;
+        for (TokenValue value : new TokenValue[] {OP_MULT, OP_DIVISION, KEYWORD_DIV, KEYWORD_MOD, KEYWORD_AND, KEYWORD_SHL, KEYWORD_SHR})
+            bindingPowers[value.ordinal()] = TERM;
     }
 
     public Parser(String filePath) throws SyntaxException {
-        tokenizer = new Tokenizer(filePath);
+        this(new TokenBuffer(new Tokenizer(filePath)));
     }
 
+    public Parser(TokenStream stream) {
+        this(new TokenBuffer(stream));
+    }
 
-    private Node parseExpression() throws SyntaxException {
-        Node e = parseExpr();
-        Token t = currentToken();
-        while (t.getTokenValue() != KEYWORD_EOF && isLogical(t.getTokenValue())) {
-            goToNextToken();
-            e = calculateConstants(e, parseExpr(), t);
-            t = currentToken();
+    public Parser(TokenRing ring) {
+        this(new TokenBuffer(ring));
+    }
+
+    public Parser(TokenBuffer tokens) {
+        this.tokens = tokens;
+        atoms = tokens.getAtoms();
+        resultAtom = atoms.intern("result");
+    }
+
+    // parser of deferred bodies, it shares the atoms and the scalar types of the program's parser. It
+    // is made on the thread of that one, where the types are made
+    private Parser(Parser program) {
+        program.bodyParsers.add(this);
+        atoms = program.atoms;
+        resultAtom = program.resultAtom;
+        integer_ = program.IntType();
+        double_ = program.DoubleType();
+        char_ = program.CharType();
+        nil_ = program.NIL();
+    }
+
+    private int atomOf(Token token) {
+        return token.getAtom() >= 0 ? token.getAtom() : atoms.intern(token.getText());
+    }
+
+
+    private Node parseExpression() throws SyntaxException { return parseExpression(LOGICAL); }
+
+    private Node parseExpr() throws SyntaxException { return parseExpression(EXPR); }
+
+    // Precedence climbing over explicit stacks, so long chains of operators, brackets and unary
+    // operators nest no calls. An operator is reduced as soon as the token after its right operand
+    // binds no tighter, in the order of a recursive descent and with the same token current
+    private Node parseExpression(int minPower) throws SyntaxException {
+        int operandBase = operandCount, operatorBase = operatorCount;
+        int brackets = 0; // opened by this expression and not closed yet
+        while (true) {
+            for (Token token = currentToken(); ; token = currentToken()) {
+                TokenValue value = token.getTokenValue();
+                if (value == SEP_BRACKETS_LEFT)
+                    brackets++;
+                else if (value != OP_MINUS && value != KEYWORD_NOT)
+                    break;
+                pushOperator(token, value == SEP_BRACKETS_LEFT ? BRACKET : UNARY);
+                goToNextToken();
+            }
+            Node operand = parseFactor();
+            while (true) {
+                while (operatorCount > operatorBase && operatorPowers[operatorCount - 1] == UNARY)
+                    operand = unaryOperation(operators[--operatorCount], operand);
+                Token next = currentToken();
+                int power = bindingPowers[next.getTokenValue().ordinal()];
+                if (power < (brackets > 0 ? LOGICAL : minPower))
+                    power = 0; // ends the expression or the one in brackets
+                while (operatorCount > operatorBase && operatorPowers[operatorCount - 1] >= Math.max(power, LOGICAL)) {
+                    Token operation = operators[--operatorCount];
+                    operand = calculateConstants(operands[--operandCount], operand, operation);
+                }
+                if (power > 0) {
+                    pushOperand(operand);
+                    pushOperator(next, power);
+                    goToNextToken();
+                    break;
+                }
+                if (brackets == 0) {
+                    operandCount = operandBase;
+                    return operand;
+                }
+                requireFollowingToken(SEP_BRACKETS_RIGHT);
+                operatorCount--;
+                brackets--;
+            }
         }
-        return e;
     }
 
-    private Node parseExpr() throws SyntaxException {
-        Node e = parseTerm();
-        Token t = currentToken(); // +
-        while (t.getTokenValue() != KEYWORD_EOF && isExpr(t.getTokenValue())) {
-            goToNextToken();
-            e = calculateConstants(e, parseTerm(), t);
-            t = currentToken();
+    private void pushOperand(Node operand) {
+        if (operandCount == operands.length)
+            operands = Arrays.copyOf(operands, operandCount * 2);
+        operands[operandCount++] = operand;
+    }
+
+    private void pushOperator(Token operator, int power) {
+        if (operatorCount == operators.length) {
+            operators = Arrays.copyOf(operators, operatorCount * 2);
+            operatorPowers = Arrays.copyOf(operatorPowers, operatorCount * 2);
         }
-        return e;
+        operators[operatorCount] = operator;
+        operatorPowers[operatorCount++] = power;
     }
 
-    private Node parseTerm() throws SyntaxException {
-        Node e = parseFactor();
-        Token t = currentToken();
-        while (t.getTokenValue() != KEYWORD_EOF && (isTerm(t.getTokenValue()))) {
-            goToNextToken();
-            e = calculateConstants(e, parseFactor(), t);
-            t = currentToken();
+    private Node unaryOperation(Token operation, Node factor) {
+        if (operation.getTokenValue() == KEYWORD_NOT)
+            return new NotNode(factor, operation);
+        if (factor instanceof ConstNode) {
+            ConstNode constant = (ConstNode)factor;
+            switch (factor.getType().category) {
+                case INT:
+                    return new ConstNode((int)-constant.getValue());
+                case DOUBLE:
+                    return new ConstNode(-constant.getDoubleValue());
+                default:
+                    return new ConstNode(new Token(String.valueOf(-constant.getValue()),
+                            new Pair(TokenType.IDENTIFIER, TokenValue.CONST_DOUBLE)), String.valueOf(-constant.getValue()));
+            }
         }
-        return e;
+        return new UnaryMinusNode(factor, operation);
     }
 
+    // an operand without unary operators and brackets around it
     private Node parseFactor() throws SyntaxException {
         Token currentToken = currentToken();
         goToNextToken();
         switch (currentToken.getTokenValue()) {
-            case OP_MINUS:
-                Node factor = parseFactor();
-                if (factor instanceof ConstNode) {
-                    Double result = getValueForEval(factor);
-                    if (factor.type.category == Category.INT || factor.type.category == Category.CHAR)
-                        return new ConstNode(factor.type, result.intValue() * -1);
-                    return new ConstNode(factor.type, getValueForEval(factor) * -1.0);
-                }
-                return new UnaryMinusNode(getList(factor), currentToken);
-            case KEYWORD_NOT:
-                return new NotNode(getList(parseFactor()), currentToken);
             case VARIABLE: {
-                switch (getTypeFromTable(currentToken).category) {
+                SymTable.Symbol symbol = getSymbolFromTable(currentToken);
+                switch (symbol.type.category) {
                     case ARRAY:
-                        return indexedVariable(new VarNode(currentToken, getTypeFromTable(currentToken)));
+                        return indexedVariable(new VarNode(currentToken, symbol));
                     case RECORD:
-                        return fieldAccess(new VarNode(currentToken, getTypeFromTable(currentToken)));
+                        return fieldAccess(new VarNode(currentToken, symbol));
                     case FUNCTION:
-                        return parseFunctionCall(new VarNode(currentToken, getTypeFromTable(currentToken)));
+                        return parseFunctionCall(new VarNode(currentToken, symbol));
                     default:
-                        return new VarNode(currentToken, getTypeFromTable(currentToken));
+                        return new VarNode(currentToken, symbol);
                 }
             }
             case KEYWORD_INTEGER:
@@ -113,15 +217,11 @@ public class Parser {
             case KEYWORD_CHARACTER:
                 return castVariables(currentToken);
             case CONST_INTEGER:
-                return new ConstNode(currentToken, IntType(), currentToken.getValue());
+                return new ConstNode(currentToken, (int)currentToken.getIntValue());
             case CONST_DOUBLE:
-                return new ConstNode(currentToken, DoubleType(), currentToken.getValue());
+                return new ConstNode(currentToken, currentToken.getDoubleValue());
             case CONST_STRING:
-                return new ConstNode(currentToken, CharType(), currentToken.getText());
-            case SEP_BRACKETS_LEFT:
-                Node e = parseExpression();
-                requireFollowingToken(SEP_BRACKETS_RIGHT);
-                return e;
+                return new ConstNode(currentToken, currentToken.getText());
             default:
                 throwSyntaxException("Error in pos %s:%s expected identifier, constant or expression", currentToken());
         }
@@ -129,29 +229,7 @@ public class Parser {
     }
 
     private boolean isLogical(TokenValue tv) {
-        return  tv == OP_GREATER ||
-                tv == OP_LESS    ||
-                tv == OP_GREATER_OR_EQUAL ||
-                tv == OP_LESS_OR_EQUAL    ||
-                tv == OP_EQUAL   ||
-                tv == OP_NOT_EQUAL;
-    }
-
-    private boolean isExpr(TokenValue tv) {
-        return  tv == OP_PLUS    ||
-                tv == OP_MINUS   ||
-                tv == KEYWORD_OR ||
-                tv == KEYWORD_XOR;
-    }
-
-    private boolean isTerm(TokenValue tv) {
-        return  tv == OP_MULT        ||
-                tv == OP_DIVISION    ||
-                tv == KEYWORD_DIV    ||
-                tv == KEYWORD_MOD    ||
-                tv == KEYWORD_AND    ||
-                tv == KEYWORD_SHL    ||
-                tv == KEYWORD_SHR;
+        return bindingPowers[tv.ordinal()] == LOGICAL;
     }
 
     private boolean isIntOnly(TokenValue tv) {
@@ -167,7 +245,7 @@ public class Parser {
     private Type getTypeForOperation(Type left, Type right, Token operation) throws SyntaxException {
         if (operation == null)
             throw new SyntaxException(String.format("Error in pos %s:%s unknown operation",
-                    currentToken().getPosX(), currentToken().getPosY()));
+                    currentToken().getPosX(), currentToken().getPosY()), currentToken());
         if (!left.isScalar() || !right.isScalar())
             throwSyntaxException("Error in pos %s:%s unsupported operands types \"%s\", \"%s\" for \"%s\"",
                 currentToken(), left.category.toString(), right.category.toString(), operation.getText());
@@ -189,77 +267,95 @@ public class Parser {
             return DoubleType();
         return resultType;    }
 
-    private Double getValueForEval(Node left) {
-        return left.type  == char_ ? (int)left.token.getText().charAt(0) : left.type == DoubleType() ?
-                Double.parseDouble(left.token.getText()) : Integer.parseInt(left.token.getText());
+    private int compare(ConstNode left, ConstNode right) {
+        if (left.getType().category == Category.DOUBLE)
+            return left.getDoubleValue() < right.getDoubleValue() ? -1 : left.getDoubleValue() == right.getDoubleValue() ? 0 : 1;
+        return Long.compare(left.getValue(), right.getValue());
     }
 
-    private Object evalOperation(Double leftValue, Double rightValue, TokenValue operation) {
+    private boolean evalLogical(ConstNode left, ConstNode right, TokenValue operation) {
+        int compared = compare(left, right);
         switch (operation) {
             case OP_GREATER:
-                return leftValue > rightValue ? 1 : 0;
+                return compared > 0;
             case OP_LESS:
-                return leftValue < rightValue ? 1 : 0;
+                return compared < 0;
             case OP_GREATER_OR_EQUAL:
-                return leftValue >= rightValue ? 1 : 0;
+                return compared >= 0;
             case OP_LESS_OR_EQUAL:
-                return leftValue <= rightValue ? 1 : 0;
+                return compared <= 0;
             case OP_EQUAL:
-                return leftValue.equals(rightValue) ? 1 : 0;
-            case OP_NOT_EQUAL:
-                return !leftValue.equals(rightValue) ? 1 : 0;
+                return compared == 0;
+            default:
+                return compared != 0;
+        }
+    }
+
+    // integer constants wrap and divide towards zero the same way the generated code does
+    private int evalInt(int left, int right, Token operation) throws SyntaxException {
+        switch (operation.getTokenValue()) {
             case KEYWORD_SHL:
-                return leftValue.intValue() << rightValue.intValue();
+                return left << right;
             case KEYWORD_SHR:
-                return leftValue.intValue() >> rightValue.intValue();
+                return left >>> right;
             case KEYWORD_XOR:
-                return leftValue.intValue() ^ rightValue.intValue();
-            case KEYWORD_DIV:
-                return Math.round(leftValue / rightValue);
-            case KEYWORD_MOD:
-                return leftValue.intValue() % rightValue.intValue();
+                return left ^ right;
             case KEYWORD_AND:
-                return leftValue.intValue() & rightValue.intValue();
+                return left & right;
             case KEYWORD_OR:
-                return leftValue.intValue() | rightValue.intValue();
+                return left | right;
+            case KEYWORD_DIV:
+            case KEYWORD_MOD:
+                if (right == 0)
+                    throwSyntaxException("Error in pos %s:%s division by zero", operation);
+                return operation.getTokenValue() == KEYWORD_DIV ? left / right : left % right;
             case OP_MULT:
-                return leftValue * rightValue;
-            case OP_DIVISION:
-                return leftValue / rightValue;
+                return left * right;
             case OP_PLUS:
-                return leftValue + rightValue;
-            case OP_MINUS:
-                return leftValue - rightValue;
+                return left + right;
             default:
-                return null; //:-)
+                return left - right;
         }
     }
 
+    private double evalDouble(double left, double right, TokenValue operation) {
+        switch (operation) {
+            case OP_MULT:
+                return left * right;
+            case OP_DIVISION:
+                return left / right;
+            case OP_PLUS:
+                return left + right;
+            default:
+                return left - right;
+        }
+    }
 
-    private Object getResultForOperation(Node left, Node right, Token operation, Type operationType) {
-        Double leftValue = getValueForEval(left);
-        Double rightValue = getValueForEval(right);
-        Object result = evalOperation(leftValue, rightValue, operation.getTokenValue());
-        if (operationType.category == Category.INT || operationType.category == Category.CHAR) //{
-            return (int)((Double.parseDouble(result.toString())));
-        return result;
+    // operands are of one category here, casts keep mixed ones from being folded
+    private ConstNode evalOperation(ConstNode left, ConstNode right, Token operation, Type operationType)
+            throws SyntaxException {
+        if (isLogical(operation.getTokenValue()))
+            return new ConstNode(evalLogical(left, right, operation.getTokenValue()) ? 1 : 0);
+        if (operationType.category == Category.DOUBLE)
+            return new ConstNode(evalDouble(left.getDoubleValue(), right.getDoubleValue(), operation.getTokenValue()));
+        return new ConstNode(evalInt((int)left.getValue(), (int)right.getValue(), operation));
     }
 
     private Node cast(Node left, Type rightType, Type operationType, Token operation) {
-        Type leftType = left.type;
+        Type leftType = left.getType();
         if (!isLogical(operation.getTokenValue()) && leftType.category != operationType.category)
-                return new CastNode(left, leftType, operationType, left.token);
+                return new CastNode(left, leftType, operationType);
         if (rightType.category == Category.DOUBLE && leftType.category != Category.DOUBLE)
-                return new CastNode(left, leftType, DoubleType(), left.token);
+                return new CastNode(left, leftType, DoubleType());
         if (rightType.category == Category.CHAR && leftType.category != Category.CHAR)
-                return new CastNode(left, leftType, DoubleType(), left.token);
+                return new CastNode(left, leftType, DoubleType());
         return left;
     }
 
     private Node calculateConstants(Node left, Node right, Token operation) throws SyntaxException {
-        Type operationType = getTypeForOperation(left.type, right.type, operation);
-        left  = cast(left, right.type, operationType, operation);
-        right = cast(right, left.type, operationType, operation);
+        Type operationType = getTypeForOperation(left.getType(), right.getType(), operation);
+        left  = cast(left, right.getType(), operationType, operation);
+        right = cast(right, left.getType(), operationType, operation);
         ConstNode l = null;
         ConstNode r = null;
         if (left instanceof ConstNode)
@@ -267,14 +363,14 @@ public class Parser {
         if (right instanceof ConstNode)
             r = (ConstNode)right;
         if (l == null || r == null)
-            return new BinOpNode(getList(left, right), operation, operationType);
-        return new ConstNode(operationType, getResultForOperation(left, right, operation, operationType));
+            return new BinOpNode(left, right, operation, operationType);
+        return evalOperation(l, r, operation, operationType);
     }
 
     private void throwSyntaxException(String textException, Token current, String ... substitutions) throws SyntaxException {
         ArrayList<String> list = new ArrayList<String>(Arrays.asList(substitutions));
         list.add(0, current.getPosX()); list.add(1, current.getPosY());
-        throw new SyntaxException(String.format(textException, list.toArray()));
+        throw new SyntaxException(String.format(textException, list.toArray()), current);
     }
 
     private ArrayList<Node> getList(Node ... nodes) { return new ArrayList<>(Arrays.asList(nodes)); }
@@ -292,7 +388,7 @@ public class Parser {
         }
         throw new SyntaxException(String.format("Error in pos %s:%s required %s but found %s",
                 currentToken().getPosX(), currentToken().getPosY(),
-                joiner.toString(), currentToken().getText()));
+                joiner.toString(), currentToken().getText()), currentToken());
     }
 
     private void requireCurrentToken(TokenValue ... tokenValues) throws SyntaxException {
@@ -305,10 +401,10 @@ public class Parser {
     }
 
     private Node parseFunctionCall(Node var) throws SyntaxException {
-        FunctionType type = (FunctionType)getTypeFromTable(var.token);
+        FunctionType type = (FunctionType)getTypeFromTable(var.getToken());
         Node result = new FunctionCallNode(var);
-        result.children.add(parseParameterList(type));
-        switch (result.type.category) {
+        result.addChild(parseParameterList(type));
+        switch (result.getType().category) {
             case ARRAY:
                 return indexedVariable(result);
             case RECORD:
@@ -327,11 +423,11 @@ public class Parser {
             throwSyntaxException("Error in pos %s:%s illegal parameters count", currentToken());
         int index = 0;
         for (Map.Entry<String, SymTable.Symbol> entry : type.params.symTable.entrySet()) {
-            requireTypesCompatibility(entry.getValue().type, arguments.get(index).type, false);
-            if (entry.getValue().type.category != arguments.get(index).type.category)
-                result.children.add(new CastNode(arguments.get(index), arguments.get(index).type, entry.getValue().type, arguments.get(index).token));
+            requireTypesCompatibility(entry.getValue().type, arguments.get(index).getType(), false);
+            if (entry.getValue().type.category != arguments.get(index).getType().category)
+                result.addChild(new CastNode(arguments.get(index), arguments.get(index).getType(), entry.getValue().type));
             else
-                result.children.add(arguments.get(index));
+                result.addChild(arguments.get(index));
             index++;
         }
 
@@ -342,8 +438,8 @@ public class Parser {
         requireFollowingToken(SEP_BRACKETS_LEFT);
         while (currentToken().getTokenValue() != SEP_BRACKETS_RIGHT) {
             nodes.add(parseExpression());
-            if (isRead && getSymbolFromTable(nodes.get(nodes.size() - 1).token).isConst)
-                throwSyntaxException("Error in pos %s:%s can't read to const variable", nodes.get(nodes.size() - 1).token);
+            if (isRead && getSymbolFromTable(nodes.get(nodes.size() - 1).getToken()).isConst)
+                throwSyntaxException("Error in pos %s:%s can't read to const variable", nodes.get(nodes.size() - 1).getToken());
             if (currentToken().getTokenValue() == SEP_BRACKETS_RIGHT)
                 break;
             requireFollowingToken(SEP_COMMA);
@@ -367,27 +463,171 @@ public class Parser {
                 break;
             default:
                 throwSyntaxException("Error in pos %s:%s can't convert from %s to %s", token,
-                        expr.type.category.toString(), token.getText());
+                        expr.getType().category.toString(), token.getText());
         }
         requireFollowingToken(SEP_BRACKETS_RIGHT);
-        return new CastNode(expr, expr.type, castType, token);
+        return new CastNode(expr, expr.getType(), castType, token);
     }
 
     public Type parse() throws SyntaxException {
+        try {
+            return parseMain();
+        } finally {
+            tokens.close();
+        }
+    }
+
+    // Same as parse, but every function declared at the top level is generated as soon as it is parsed,
+    // handed to the sink and dropped. Its signature stays in the tree, its vars and body are gone, so
+    // the tree holds the largest function at most. Code of main goes into the asm the sink has started
+    public Type parse(CodeSink sink) throws SyntaxException {
+        this.sink = sink;
+        try {
+            return parse();
+        } finally {
+            this.sink = null;
+            code = null;
+        }
+    }
+
+    // Same tree as parse, but the bodies of functions are only passed by while the declarations are
+    // parsed and then parsed side by side on the pool, each against the scopes seen from it. The first
+    // error in source order is thrown. Tokens have to come from a stream, others are parsed as usual
+    public Type parse(ForkJoinPool pool) throws SyntaxException {
+        if (!tokens.isStream())
+            return parse();
+        Type main = null;
+        SyntaxException declarationError = null; // comes after all of the bodies met before it
+        deferred = new ArrayList<>();
+        try {
+            main = parseMain();
+        } catch (SyntaxException e) {
+            declarationError = e;
+        } finally {
+            tokens.close();
+        }
+        ArrayList<DeferredBody> bodies = deferred;
+        deferred = null;
+        // runs of bodies in source order, each parsed by a parser of its own up to its first error
+        int run = Math.max(1, bodies.size() / (pool.getParallelism() * 4));
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int start = 0; start < bodies.size(); start += run) {
+            Parser parser = new Parser(this);
+            List<DeferredBody> part = bodies.subList(start, Math.min(bodies.size(), start + run));
+            tasks.add(pool.submit(() -> parser.parseBodies(part)));
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).join();
+            for (DeferredBody body : bodies.subList(i * run, Math.min(bodies.size(), (i + 1) * run))) {
+                if (body.error != null) {
+                    for (int j = i + 1; j < tasks.size(); j++)
+                        tasks.get(j).cancel(false);
+                    body.rethrow();
+                }
+                body.function.deferredBody = null;
+            }
+        }
+        if (declarationError != null)
+            throw declarationError;
+        return main;
+    }
+
+    // Declarations only, the bodies of functions are passed by and parsed when FunctionType.getBody
+    // asks for them. Tokens have to come from a stream, others are parsed as usual. On an error of the
+    // declarations the bodies met before it are parsed, so the first error in source order is thrown
+    public Type parseDeclarations() throws SyntaxException {
+        if (!tokens.isStream())
+            return parse();
+        deferred = new ArrayList<>();
+        try {
+            return parseMain();
+        } catch (SyntaxException e) {
+            ArrayList<DeferredBody> bodies = deferred;
+            deferred = null;
+            new Parser(this).parseBodies(bodies);
+            for (DeferredBody body : bodies)
+                body.rethrow();
+            throw e;
+        } finally {
+            deferred = null;
+            tokens.close();
+        }
+    }
+
+    // lexical error which ended the tokens, or null. See TokenBuffer.getError for when it is known
+    public String getLexicalError() { return tokens.getError(); }
+
+    // where the lexical error stands, see TokenBuffer.getEndOfFile
+    public Token getLexicalErrorToken() { return tokens.getEndOfFile(); }
+
+    // the tree is dropped at once when the compilation is done with it, its nodes can't be used after
+    public void release() {
+        arena.release();
+        for (Parser parser : bodyParsers)
+            parser.release();
+    }
+
+    // A function body left for later. It starts at the begin its tokens are forked at and sees the
+    // tables open there, each with the symbols declared in it up to that point
+    private class DeferredBody {
+        final FunctionType function;
+        final boolean isMain;
+        final TokenBuffer tokens;
+        final SymTable[] scopes;
+        final int[] declared;
+        Exception error;
+
+        DeferredBody(FunctionType function, boolean isMain) {
+            this.function = function;
+            this.isMain = isMain;
+            tokens = Parser.this.tokens.fork();
+            scopes = tables.open.toArray(new SymTable[0]);
+            declared = new int[scopes.length];
+            for (int i = 0; i < scopes.length; i++)
+                declared[i] = scopes[i].atomCount;
+        }
+
+        void rethrow() throws SyntaxException {
+            if (error instanceof SyntaxException)
+                throw (SyntaxException)error;
+            if (error != null)
+                throw (RuntimeException)error;
+        }
+    }
+
+    // bodies in order up to the first one which fails, its error is kept with it
+    private void parseBodies(List<DeferredBody> bodies) {
+        for (DeferredBody body : bodies) {
+            tokens = body.tokens;
+            tables = new Scopes(body.scopes, body.declared);
+            loopCount = resultCount = 0;
+            exitFound = false;
+            try {
+                functionBody(body.function, body.isMain);
+            } catch (SyntaxException | RuntimeException e) {
+                body.error = e;
+                return;
+            }
+        }
+        arena.trim();
+    }
+
+    private Type parseMain() throws SyntaxException {
         goToNextToken();
         String name = "@MAIN";
         if (currentValue() == KEYWORD_PROGRAM)
             name = parseProgram();
-        tables = new Stack<>();
+        tables = new Scopes();
         tables.push(new SymTable());
+        if (sink != null)
+            code = sink.start(tables.peek());
         declarationPart();
-        FunctionType main = new FunctionType(new SymTable(), tables.peek(), NIL(), compoundStatement(), name);
-        ArrayList<Node> children = main.compound_statement.children;
-        if (!(children.get(children.size() - 1) instanceof ExitNode))
-            main.compound_statement.children.add(new ExitNode(currentToken()));
+        FunctionType main = new FunctionType(new SymTable(), tables.peek(), NIL(), null, name);
+        body(main, true);
         Token result = new Token("result", new Pair(TokenType.IDENTIFIER, VARIABLE)); // Magic identifier result
         main.vars.addVARSymbol(getList(new VarNode(result)), NIL(), null, false);
         main.vars.calculateOffsets();
+        arena.trim();
 //        for (SymTable table : tables) {
 //            table.printOffsets();
 //            System.out.println(">>>>>>>>>>>>>>>>>>>>>>>>>>>>>");
@@ -510,17 +750,17 @@ public class Parser {
     private Type arrayType() throws SyntaxException { // array_type
         requireFollowingToken(SEP_BRACKETS_SQUARE_LEFT);
         Node min = parseExpr();
-        if (min.type != integer_) // TODO make function check node Type
+        if (min.getType() != integer_) // TODO make function check node Type
             throw new SyntaxException(String.format("Error in pos %s:%s expected const integer in array definition but found %s ",
-                    currentToken().getPosX(), currentToken().getPosY(), min.type));
+                    currentToken().getPosX(), currentToken().getPosY(), min.getType()), currentToken());
         requireFollowingToken(SEP_DOUBLE_DOT);
         Node max = parseExpr();
         requireFollowingToken(SEP_BRACKETS_SQUARE_RIGHT);
-        if (max.type != integer_)
+        if (max.getType() != integer_)
             throw new SyntaxException(String.format("Error in pos %s:%s expected const integer in array definition but found %s ",
-                    currentToken().getPosX(), currentToken().getPosY(), max.type));
+                    currentToken().getPosX(), currentToken().getPosY(), max.getType()), currentToken());
         requireFollowingToken(KEYWORD_OF);
-        return new ArrayType(parseType(), (ConstNode)min, (ConstNode)max);
+        return canonical(new ArrayType(parseType(), (ConstNode)min, (ConstNode)max));
     }
 
     private Type recordType() throws SyntaxException {
@@ -533,7 +773,7 @@ public class Parser {
         //fields.printOffsets();
         //System.out.println(".........");
         requireFollowingToken(KEYWORD_END);
-        return new RecordType(fields);
+        return canonical(new RecordType(fields));
     }
 
     private Node typedConstant(Type type) throws SyntaxException { // typed_constant
@@ -543,16 +783,18 @@ public class Parser {
                 requireFollowingToken(SEP_BRACKETS_LEFT);
                 RecordType recordType = (RecordType)type;
                 typedConstant = new TypedConstant(recordType);
-                for (Map.Entry<String, SymTable.Symbol> pair : recordType.fields.symTable.entrySet()) {
+                SymTable fields = recordType.fields;
+                for (int i = 0; i < fields.atomCount; i++) {
                     Token variable = currentToken();
                     requireFollowingToken(VARIABLE);
-                    if (!pair.getKey().equals(variable.getText())) {
-                        if (recordType.fields.symTable.containsKey(variable.getText()))
+                    int atom = atomOf(variable);
+                    if (atom != fields.atomList[i]) {
+                        if (fields.symbols.containsKey(atom))
                             throwSyntaxException("Error in pos %s:%s illegal initialization order", variable);
                         throwSyntaxException("Error in pos %s:%s unknown record field identifier %s", variable, variable.getText());
                     }
                     requireFollowingToken(OP_COLON);
-                    typedConstant.children.add(typedConstant(pair.getValue().type));
+                    typedConstant.addChild(typedConstant(fields.symbols.get(atom).type));
                     requireFollowingToken(SEP_SEMICOLON);
                 }
                 requireFollowingToken(SEP_BRACKETS_RIGHT);
@@ -560,12 +802,12 @@ public class Parser {
             case ARRAY:
                 ArrayType arrayType = (ArrayType)type;
                 typedConstant = new TypedConstant(arrayType);
-                int min = Integer.parseInt(arrayType.min.result.toString());
-                int max = Integer.parseInt(arrayType.max.result.toString());
+                int min = (int)arrayType.min.getValue();
+                int max = (int)arrayType.max.getValue();
                 Type element = arrayType.elementType;
                 requireFollowingToken(SEP_BRACKETS_LEFT);
                 for (int i = min; i <= max; i++) {
-                    typedConstant.children.add(typedConstant(element));
+                    typedConstant.addChild(typedConstant(element));
                     if (i != max) {
                         requireFollowingToken(SEP_COMMA);
                     }
@@ -576,15 +818,15 @@ public class Parser {
             case DOUBLE:
             case CHAR:
                 typedConstant = parseExpression();
-                requireTypesCompatibility(type, typedConstant.type, false);
-                if (type.category != typedConstant.type.category)
-                    return new CastNode(typedConstant, typedConstant.type, type, typedConstant.token);
+                requireTypesCompatibility(type, typedConstant.getType(), false);
+                if (type.category != typedConstant.getType().category)
+                    return new CastNode(typedConstant, typedConstant.getType(), type);
                 else
                     return typedConstant;
             default:
                 throw new SyntaxException(String.format("Error in pos %s:%s expected array, record, integer, char or double " +
                                 "in typed constant but found %s ",
-                        currentToken().getPosX(), currentToken().getPosY(), currentToken().getText()));
+                        currentToken().getPosX(), currentToken().getPosY(), currentToken().getText()), currentToken());
         }
     }
 
@@ -635,8 +877,8 @@ public class Parser {
                 Node expression = parseExpression();
                 if (!(expression instanceof ConstNode))
                     throw new SyntaxException(String.format("Error in pos %s:%s illegal expression ",
-                            currentToken().getPosX(), currentToken().getPosY()));
-                tables.peek().addCONSTSymbol(identifier, expression.type, expression);
+                            currentToken().getPosX(), currentToken().getPosY()), currentToken());
+                tables.peek().addCONSTSymbol(identifier, expression.getType(), expression);
                 return;
                 }
             case OP_COLON: {
@@ -713,26 +955,73 @@ public class Parser {
         tables.peek().calculateOffsets();
 
         functionType.params = tables.peek();
-        // Declaration
-        tables.push(new SymTable());
-        declarationPart();
-        //if (!isProcedure && !tables.peek().symTable.containsKey("result")) {
-            Token result = new Token("result", new Pair(TokenType.IDENTIFIER, VARIABLE)); // Magic identifier result
-            tables.peek().addVARSymbol(getList(new VarNode(result)), returnType, null, false);
-        //}
-        // Compound_statement
-        functionType.compound_statement = compoundStatement();
-        ArrayList<Node> children = functionType.compound_statement.children;
-        if (children.size() == 0 || !(children.get(children.size() - 1) instanceof ExitNode)) {
-            functionType.compound_statement.children.add(new ExitNode(currentToken()));
+        // a streamed function has an arena of its own, the nodes of its params are kept with the program
+        NodeArena programArena = arena;
+        boolean isStreamed = sink != null && tables.open.size() == 2;
+        if (isStreamed)
+            arena = new NodeArena();
+        try {
+            // Declaration
+            tables.push(new SymTable());
+            declarationPart();
+            //if (!isProcedure && !tables.peek().symTable.containsKey("result")) {
+                Token result = new Token("result", new Pair(TokenType.IDENTIFIER, VARIABLE)); // Magic identifier result
+                tables.peek().addVARSymbol(getList(new VarNode(result)), returnType, null, false);
+            //}
+            // Compound_statement
+            body(functionType, false);
+            tables.peek().calculateOffsets();
+            functionType.vars = tables.peek();
+            tables.pop();
+            tables.pop();
+            //tables.peek().addVARSymbol(functionIdentifier, functionType);
+        } finally {
+            arena = programArena; // nodes made after an error are the program's too
+        }
+        if (isStreamed)
+            stream(atoms.getName(atomOf(functionIdentifier)), functionType);
+    }
+
+    // A function at the top level is parsed, and the globals declared before it are laid out for good.
+    // It goes to the sink and all but its signature is dropped
+    private void stream(String name, FunctionType function) {
+        SymTable globals = tables.peek();
+        globals.calculateOffsets();
+        sink.add(globals.genFunction(sink.fork(code), sink, name, name, function));
+        function.vars = null;
+        function.compound_statement = null;
+    }
+
+    // the body of a function, or its extent only while bodies are deferred
+    private void body(FunctionType function, boolean isMain) throws SyntaxException {
+        if (deferred == null) {
+            functionBody(function, isMain);
+            return;
+        }
+        requireCurrentToken(KEYWORD_BEGIN);
+        function.deferredBody = new DeferredBody(function, isMain);
+        deferred.add(function.deferredBody);
+        int depth = 0;
+        do {
+            if (currentValue() == KEYWORD_BEGIN)
+                depth++;
+            else if (currentValue() == KEYWORD_END)
+                depth--;
+            else if (currentValue() == KEYWORD_EOF)
+                return; // the body is broken, its own parse tells where
+            goToNextToken();
+        } while (depth > 0);
+    }
+
+    private void functionBody(FunctionType function, boolean isMain) throws SyntaxException {
+        function.compound_statement = compoundStatement();
+        if (!(function.compound_statement.getLastChild() instanceof ExitNode)) {
+            function.compound_statement.addChild(new ExitNode(currentToken()));
             exitFound = true;
         }
-        tables.peek().calculateOffsets();
-        functionType.vars = tables.peek();
-        tables.pop();
-        tables.pop();
-        //tables.peek().addVARSymbol(functionIdentifier, functionType);
-        if (resultCount == 0 && functionType.returnType != NIL() && !exitFound)
+        if (isMain)
+            return;
+        if (resultCount == 0 && function.returnType != NIL() && !exitFound)
             throwSyntaxException("Error in pos %s:%s RESULT identifier in function not found", currentToken());
         if (resultCount > 0) resultCount--;
     }
@@ -743,7 +1032,7 @@ public class Parser {
             goToNextToken();
             Node node = statementPart();
             if (node != null)
-                statement.children.add(node);
+                statement.addChild(node);
         } while (currentValue() == SEP_SEMICOLON);
         return statement;
     }
@@ -758,17 +1047,17 @@ public class Parser {
     private Node statementPart() throws SyntaxException { // compound_statement
         switch (currentValue()) { // statement_list
             case VARIABLE:
-                if (currentToken().getText().toLowerCase().equals("result")) // Magic identifier
+                if (atomOf(currentToken()) == resultAtom) // Magic identifier
                     resultCount++;
                 Token currentToken = currentToken();
-                if (getSymbolFromTable(currentToken).isConst)
+                SymTable.Symbol symbol = getSymbolFromTable(currentToken); // the one probe of the statement
+                if (symbol.isConst)
                     throwSyntaxException("Error in pos %s:%s can't modify const variable", currentToken);
-                Type type = getTypeFromTable(currentToken);
-                if (type.category == Category.FUNCTION) {
+                if (symbol.type.category == Category.FUNCTION) {
                     goToNextToken();
-                    return parseFunctionCall(new VarNode(currentToken, getTypeFromTable(currentToken)));
+                    return parseFunctionCall(new VarNode(currentToken, symbol));
                 }
-                return assignStatement();
+                return assignStatement(symbol);
             case KEYWORD_IF:
                 goToNextToken();
                 return ifStatement();
@@ -804,13 +1093,16 @@ public class Parser {
         Node exitNode = new ExitNode(token);
         goToNextToken();
         if (currentValue() == SEP_BRACKETS_LEFT) {
+            SymTable.Symbol result = tables.peek().symbols.get(resultAtom);
+            if (result == null) // the program has no result
+                throwSyntaxException("Error in pos %s:%s exit with a value is not allowed here", token);
             Node expr = parseExpression();
-            Type newType = tables.peek().symTable.get("result").type;
-            requireTypesCompatibility(newType, expr.type, false);
-            if (expr.type.category != newType.category)
-                exitNode.children.add(new CastNode(expr, expr.type, newType, expr.token));
+            Type newType = result.type;
+            requireTypesCompatibility(newType, expr.getType(), false);
+            if (expr.getType().category != newType.category)
+                exitNode.addChild(new CastNode(expr, expr.getType(), newType));
             else
-                exitNode.children.add(expr);
+                exitNode.addChild(expr);
         }
         return exitNode;
     }
@@ -834,7 +1126,10 @@ public class Parser {
         Node node = currentToken().getTokenValue() == KEYWORD_READ ?
                 new ReadNode(currentToken()) : new WriteNode(currentToken());
         goToNextToken();
-        parseExpressionList(node.children, current.getTokenValue() == KEYWORD_READ);
+        ArrayList<Node> arguments = new ArrayList<>();
+        parseExpressionList(arguments, current.getTokenValue() == KEYWORD_READ);
+        for (Node argument : arguments)
+            node.addChild(argument);
         return node;
     }
 
@@ -854,20 +1149,21 @@ public class Parser {
         Token forToken = currentToken();
         goToNextToken();
         requireCurrentToken(VARIABLE);
-        Node start = new VarNode(currentToken(), getTypeFromTable(currentToken()));
-        requireTypesCompatibility(IntType(), start.type, false);
-        ForNode forNode = new ForNode(tables.peek().getSymbol(currentToken()), forToken);
+        SymTable.Symbol counter = getSymbolFromTable(currentToken());
+        Node start = new VarNode(currentToken(), counter);
+        requireTypesCompatibility(IntType(), start.getType(), false);
+        ForNode forNode = new ForNode(counter, forToken);
         goToNextToken();
         requireFollowingToken(KEYWORD_ASSIGN);
         Node from = parseExpression();
-        requireTypesCompatibility(IntType(), from.type, false);
+        requireTypesCompatibility(IntType(), from.getType(), false);
         forNode.setFrom(from);
         if (currentToken().getTokenValue() == KEYWORD_DOWNTO)
-            forNode.isDownTo = true;
+            forNode.setDownTo();
         Token toName = currentToken();
         requireFollowingToken(KEYWORD_TO, KEYWORD_DOWNTO);
         Node to = parseExpression();
-        requireTypesCompatibility(IntType(), to.type, false);
+        requireTypesCompatibility(IntType(), to.getType(), false);
         forNode.setTo(to);
         requireFollowingToken(KEYWORD_DO);
         forNode.setBody(statementPart());
@@ -889,27 +1185,26 @@ public class Parser {
         return ifNode;
     }
 
-    private Node assignStatement() throws SyntaxException {
+    private Node assignStatement(SymTable.Symbol symbol) throws SyntaxException {
         Node identifier = null;
         Token currenToken = currentToken();
-        Type type = getTypeFromTable(currentToken());
-        switch (type.category) {
+        switch (symbol.type.category) {
             case ARRAY:
                 goToNextToken();
-                identifier = indexedVariable(new VarNode(currenToken, type));
+                identifier = indexedVariable(new VarNode(currenToken, symbol));
                 break;
             case RECORD:
                 goToNextToken();
-                identifier = fieldAccess(new VarNode(currenToken, type));
+                identifier = fieldAccess(new VarNode(currenToken, symbol));
                 break;
             default:
-                identifier = new VarNode(currenToken, type);
+                identifier = new VarNode(currenToken, symbol);
                 goToNextToken();
                 break;
         }
         if (currentValue() != KEYWORD_ASSIGN)
             return identifier;
-        Type identifierType = identifier.type;
+        Type identifierType = identifier.getType();
         goToNextToken();
         Node expression = parseExpression();
         //SymTable.Symbol expressionSymbol = getSymbolFromTable(expression.token);
@@ -918,20 +1213,20 @@ public class Parser {
 //            throwSyntaxException("Error in pos %s %s can't assign value to a type", currenToken);
         //isTypes(currenToken, expression);
         //System.out.println(currentToken());
-        requireTypesCompatibility(identifierType, expression.type, false);
-        Type rightType = expression.type.category == Category.FUNCTION ?
-                ((FunctionType)expression.type).returnType : expression.type;
+        requireTypesCompatibility(identifierType, expression.getType(), false);
+        Type rightType = expression.getType().category == Category.FUNCTION ?
+                ((FunctionType)expression.getType()).returnType : expression.getType();
         //expression.type = rightType;
-        if (rightType.category != identifier.type.category)
-            expression = new CastNode(expression, expression.type, identifier.type, expression.token);
+        if (rightType.category != identifier.getType().category)
+            expression = new CastNode(expression, expression.getType(), identifier.getType());
         //return new CastNode(left, leftType, operationType, left.token);
         return new AssignStatement(identifier, expression);
     }
 
     private void isTypes(Token token, Node node) throws SyntaxException {
         if (getSymbolFromTable(token).isType) {
-            if (node.token.getTokenValue() == VARIABLE)
-                if (getSymbolFromTable(node.token).isType)
+            if (node.getTokenValue() == VARIABLE)
+                if (getSymbolFromTable(node.getToken()).isType)
                     return;
             throwSyntaxException("Error in pos %s:%s incompatible types: expected type %s", currentToken(),
                 getSymbolFromTable(token).type.category.toString());
@@ -939,16 +1234,16 @@ public class Parser {
     }
 
     private Node indexedVariable(Node index) throws SyntaxException {
-        Type currType = index.type;
+        Type currType = index.getType();
         while (currentValue() == SEP_BRACKETS_SQUARE_LEFT) {
             if (currType.category != Category.ARRAY)
                 throwSyntaxException("Error in pos %s:%s wrong size of array", currentToken());
             goToNextToken();
             ArrayType a = (ArrayType)currType;
             Node expr = parseExpression();
-            if (expr.type.category != Category.INT)
+            if (expr.getType().category != Category.INT)
                 throwSyntaxException("Error in pos %s:%s require INT type in index", currentToken());
-            index = new IndexNode(getList(index, expr), a.elementType);
+            index = new IndexNode(index, expr, a.elementType);
             requireFollowingToken(SEP_BRACKETS_SQUARE_RIGHT);
             currType = a.elementType;
         }
@@ -958,7 +1253,7 @@ public class Parser {
     }
 
     private Node fieldAccess(Node node) throws SyntaxException {
-        Type type = node.type;
+        Type type = node.getType();
         while (currentValue() == SEP_DOT) {
             if (type.category != Category.RECORD)
                 throwSyntaxException("Error in pos %s:%s invalid record access", currentToken());
@@ -966,11 +1261,11 @@ public class Parser {
             requireCurrentToken(VARIABLE);
             RecordType recordType = (RecordType)type;
             Iterator<Map.Entry<String, SymTable.Symbol>> it = recordType.fields.symTable.entrySet().iterator();
-            SymTable.Symbol symbol = recordType.fields.symTable.get(currentToken().getText().toLowerCase());
+            SymTable.Symbol symbol = recordType.fields.symbols.get(atomOf(currentToken()));
             if (symbol == null)
                 throwSyntaxException("Error in pos %s:%s field not found %s", currentToken(), currentToken().getText());
             Node varNode = new VarNode(currentToken(), symbol.type);
-            node = new FieldAccessNode(getList(node, varNode), symbol.type);
+            node = new FieldAccessNode(node, varNode, symbol);
             type = symbol.type;
             goToNextToken();
         }
@@ -979,28 +1274,31 @@ public class Parser {
         return node;
     }
 
-    // TODO сделать одну функцию на эти двк операции ниже
     private Type getTypeFromTable(Token identifier) throws SyntaxException {
-        for (int i = tables.size() - 1; i >= 0; i--)
-            if (tables.get(i).getAliasTypeFunction(identifier))
-                return tables.get(i).getAliasType(identifier);
-        throwSyntaxException("Error in pos %s:%s identifier not found %s", identifier, identifier.getText());
-        return null;
+        return getSymbolFromTable(identifier).type;
     }
 
     private SymTable.Symbol getSymbolFromTable(Token identifier) throws SyntaxException {
-        for (int i = tables.size() - 1; i >= 0; i--)
-            if (tables.get(i).getAliasTypeFunction(identifier))
-                return tables.get(i).symTable.get(identifier.getText().toLowerCase());
-        throwSyntaxException("Error in pos %s:%s identifier not found %s", identifier, identifier.getText());
-        return null;
+        SymTable.Symbol symbol = tables.get(atomOf(identifier));
+        if (symbol == null)
+            throwSyntaxException("Error in pos %s:%s identifier not found %s", identifier, identifier.getText());
+        return symbol;
     }
 
-    private void goToNextToken() { tokenizer.Next(); }
+    // an interrupted compilation stops at the next token, so a cancelled one frees its thread
+    private void goToNextToken() {
+        if (Thread.interrupted())
+            throw new CancellationException("Compilation is cancelled");
+        tokens.next();
+    }
 
-    private Token currentToken() { return tokenizer.getCurrentToken(); }
+    private Token currentToken() {
+        return tokens.peek(0);
+    }
 
-    private TokenValue currentValue() { return tokenizer.getCurrentToken().getTokenValue(); }
+    private TokenValue currentValue() {
+        return tokens.peekValue(0);
+    }
 
     // Type......
 
@@ -1036,8 +1334,12 @@ public class Parser {
             }
         }
 
+        public void accept(TreeVisitor visitor) { visitor.visitType(category.toString()); }
+
         public String toString() {
-            return category.toString();
+            StringWriter text = new StringWriter();
+            accept(new TextTreeWriter(text));
+            return text.toString();
         }
     }
 
@@ -1073,24 +1375,49 @@ public class Parser {
         return nil_;
     }
 
+    // Array and record types are hash-consed: structurally equal ones are one instance, which makes
+    // them compatible by identity. Their sizes and layouts are worked out once, when they are made
+    private final HashMap<Type, Type> types = new HashMap<>();
+
+    private Type canonical(Type type) {
+        Type known = types.putIfAbsent(type, type);
+        return known != null ? known : type;
+    }
+
 
     private class ArrayType extends Type {
         public Type elementType;
         public ConstNode min;
         public ConstNode max;
 
+        public final int stride; // size of an element
+        private final int size;
+
         public ArrayType(Type elementType, ConstNode min, ConstNode max) {
             super(Category.ARRAY);
             this.elementType = elementType;
             this.min = min;
             this.max = max;
+            stride = elementType.getSize();
+            int size = (int)(max.getValue() - min.getValue() + 1) * stride;
+            this.size = size + (4 - size % 4) % 4;
         }
 
         @Override
-        public int getSize() {
-            int size = (Integer.parseInt(max.result.toString()) -
-                    Integer.parseInt(min.result.toString()) + 1) * elementType.getSize();
-            return size + (4 - size % 4) % 4;
+        public int getSize() { return size; }
+
+        // of the same elements, which are canonical already, and the same bounds
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ArrayType))
+                return false;
+            ArrayType type = (ArrayType)o;
+            return elementType == type.elementType && min.getValue() == type.min.getValue() && max.getValue() == type.max.getValue();
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(elementType) * 31 + Long.hashCode(min.getValue())) * 31 + Long.hashCode(max.getValue());
         }
 
         public int getArrayOffset(Type type) {
@@ -1109,57 +1436,61 @@ public class Parser {
             return 0;
         }
 
-        public String toString() {
-            String result = "";
-            Type currType = this;
-            while (currType.category == Category.ARRAY) {
-                ArrayType tmp = (ArrayType) currType;
-                result += "array [" + tmp.min + ", " + tmp.max + "]" + " of ";
-                currType = tmp.elementType;
-                if (currType.category != Category.ARRAY)
-                    result += currType.toString();
-            }
-            return result;
+        @Override
+        public void accept(TreeVisitor visitor) {
+            visitor.enterArray(min.getText(), max.getText());
+            elementType.accept(visitor);
+            visitor.leaveArray();
         }
     }
 
     private class RecordType extends Type {
         public SymTable fields;
 
+        private final int size;
+
         public RecordType(SymTable fields) {
             super(Category.RECORD);
             this.fields = fields;
+            size = fields.getSize() + (4 - fields.getSize() % 4) % 4;
+            for (SymTable.Symbol field : fields.symTable.values()) // offsets are where the fields end
+                field.fieldOffset = fields.getOffset(field.name) - field.type.getSize();
         }
 
-        public int getRecordOffset(Token token, Type type) {
-            int offset = fields.getOffset(token.getText());
-            switch (type.category) {
-                case INT:
-                    return offset - 4;
-                case DOUBLE:
-                    return offset - 8;
-                case CHAR:
-                    return offset - 1;
-                case ARRAY:
-                    return offset - ((ArrayType)type).getSize();
-                case RECORD:
-                    return offset - ((RecordType)type).getSize();
-                default: // :-)
+        @Override
+        public int getSize() { return size; }
+
+        // of the same fields in the same order
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RecordType) || ((RecordType)o).fields.symTable.size() != fields.symTable.size())
+                return false;
+            Iterator<SymTable.Symbol> it = ((RecordType)o).fields.symTable.values().iterator();
+            for (SymTable.Symbol field : fields.symTable.values()) {
+                SymTable.Symbol other = it.next();
+                if (!field.name.equals(other.name) || field.type != other.type)
+                    return false;
             }
-            return 0;
+            return true;
         }
 
         @Override
-        public int getSize() {
-            return fields.getSize() + (4 - fields.getSize() % 4) % 4;
+        public int hashCode() {
+            int hash = 0;
+            for (SymTable.Symbol field : fields.symTable.values())
+                hash = (hash * 31 + field.name.hashCode()) * 31 + System.identityHashCode(field.type);
+            return hash;
         }
 
-        public String toString() {
-            String result = category + "\n";
-            for (Map.Entry<String, SymTable.Symbol> entry: fields.symTable.entrySet())
-                result += spaces.toString() + spaces + entry.getKey() + " : " + entry.getValue().type.toString()+ "\n";
-            result += spaces + "END";
-            return result;
+        @Override
+        public void accept(TreeVisitor visitor) {
+            visitor.enterRecord();
+            for (Map.Entry<String, SymTable.Symbol> entry : fields.symTable.entrySet()) {
+                visitor.enterField(entry.getKey());
+                entry.getValue().type.accept(visitor);
+                visitor.leaveField();
+            }
+            visitor.leaveRecord();
         }
 
     }
@@ -1170,6 +1501,7 @@ public class Parser {
         public SymTable vars;
         public Node compound_statement;
         public String name;
+        private DeferredBody deferredBody; // compound_statement is parsed on demand
 
         public FunctionType(SymTable params, SymTable vars, Type returnType, Node compound_statement, String name) {
             super(Category.FUNCTION);
@@ -1180,53 +1512,59 @@ public class Parser {
             this.name = name;
         }
 
-        public String toString() {
-            String result = "";
-            result += spaces.toString() + category + " : " + name + "\n";
-            result += spaces.append("    ") + "result : " + returnType.category + "\n";
-            result += getParamsVars(true);
-            result += getParamsVars(false);
-            result += getStringFromSOUT(compound_statement);
-            spaces.delete(spaces.lastIndexOf("    "), spaces.lastIndexOf("    ") + 4);
-            return result;
-        }
-
-        private String getParamsVars(boolean isParams) {
-            String result = spaces + "function " + (isParams ? "params {\n" : "vars {\n");
-            SymTable currTable = isParams ? params : vars;
-            if (currTable == null) return "";
-            for (Map.Entry<String, SymTable.Symbol> entry : currTable.symTable.entrySet()) {
-                if (entry.getKey().equals(name.toLowerCase()) || entry.getKey().equals("result"))
-                    continue; // for magic tokens
-                if (entry.getValue().type.category != Category.FUNCTION) { // look at function above
-                    result += spaces.toString() + entry.getKey() + " : ";
-                    result += entry.getValue().isType ? "type " : "";
-                    result += entry.getValue().isConst ? "const " : "";
+        // compound_statement, parsed first if it was deferred
+        public Node getBody() throws SyntaxException {
+            synchronized (Parser.this) {
+                if (deferredBody != null) {
+                    if (lazyParser == null)
+                        lazyParser = new Parser(Parser.this);
+                    lazyParser.parseBodies(Collections.singletonList(deferredBody));
+                    deferredBody.rethrow();
+                    deferredBody = null;
                 }
-                result += entry.getValue().type.toString() + "\n";
-                result += getStringFromSOUT(entry.getValue().value);
             }
-            result += spaces + "}";
-            if (isParams) result += "\n";
-            return result;
+            return compound_statement;
         }
-    }
 
-    private String getStringFromSOUT(Node node) {
-        StringBuilder builder = new StringBuilder();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        PrintStream ps = new PrintStream(baos);
-        PrintStream old = System.out;
-        System.setOut(ps);
-        if (node != null) {
-            System.out.println();
-            node.print(0);
+        // the body for a walk or for code, which take no syntax errors. One in a body parsed on demand
+        // comes out unchecked with the SyntaxException as its cause
+        Node requireBody() {
+            try {
+                return getBody();
+            } catch (SyntaxException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        // code of the body of the program into asm, after the code of its functions. Its labels have no path
+        public void genMain(CodeAsm asm) { requireBody().genAsmCode(new PartAsm(asm, ""), false); }
+
+        @Override
+        public void accept(TreeVisitor visitor) {
+            visitor.enterFunction(name, returnType.category.toString());
+            accept(visitor, params, true);
+            accept(visitor, vars, false);
+            Node body = requireBody();
+            if (body != null)
+                body.accept(visitor);
+            visitor.leaveFunction();
+        }
+
+        private void accept(TreeVisitor visitor, SymTable table, boolean isParams) {
+            if (table == null) return;
+            visitor.enterTable(isParams);
+            for (Map.Entry<String, SymTable.Symbol> entry : table.symTable.entrySet()) {
+                if (entry.getKey().equals(AtomTable.fold(name)) || entry.getKey().equals("result"))
+                    continue; // for magic tokens
+                SymTable.Symbol symbol = entry.getValue();
+                visitor.enterSymbol(entry.getKey(), symbol.isType, symbol.isConst);
+                symbol.type.accept(visitor);
+                if (symbol.value != null)
+                    symbol.value.accept(visitor);
+                visitor.leaveSymbol();
+            }
+            visitor.leaveTable(isParams);
         }
-        if (baos.size() > 0)
-            builder.append(baos.toString());
-        System.out.flush();
-        System.setOut(old);
-        return builder.toString();
     }
 
     private String genSpace(int size) {
@@ -1235,18 +1573,100 @@ public class Parser {
 
     // Sym Table......
 
+    // Open symbol tables, the innermost on top. A name is resolved with one probe: every atom maps to
+    // its innermost declaration, which links to the one it shadows. Tables open and close at the top
+    private class Scopes {
+        private final ArrayList<SymTable> open = new ArrayList<>();
+        private final AtomMap<Declaration> innermost = new AtomMap<>();
+        // Tables open at a deferred body, below the ones opened since, with the count of symbols
+        // declared in each up to the body. They are probed one by one from the innermost, as linking
+        // all of their symbols for every body would cost as much as the program has of them
+        private SymTable[] frozen = new SymTable[0];
+        private int[] visible;
+
+        private Scopes() {}
+
+        private Scopes(SymTable[] frozen, int[] visible) {
+            this.frozen = frozen;
+            this.visible = visible;
+            open.addAll(Arrays.asList(frozen));
+        }
+
+        private class Declaration {
+            final SymTable.Symbol symbol;
+            final Declaration shadowed;
+
+            Declaration(SymTable.Symbol symbol, Declaration shadowed) {
+                this.symbol = symbol;
+                this.shadowed = shadowed;
+            }
+        }
+
+        private void push(SymTable table) {
+            open.add(table);
+            for (int i = 0; i < table.atomCount; i++)
+                link(table, table.atomList[i]);
+        }
+
+        private void pop() {
+            SymTable table = open.remove(open.size() - 1);
+            for (int i = table.atomCount - 1; i >= 0; i--)
+                innermost.put(table.atomList[i], innermost.get(table.atomList[i]).shadowed);
+        }
+
+        private SymTable peek() { return open.get(open.size() - 1); }
+
+        // a table gains a symbol, only the top one can while it is open
+        private void declared(SymTable table, int atom) {
+            if (!open.isEmpty() && peek() == table)
+                link(table, atom);
+        }
+
+        private void link(SymTable table, int atom) {
+            innermost.put(atom, new Declaration(table.symbols.get(atom), innermost.get(atom)));
+        }
+
+        private SymTable.Symbol get(int atom) {
+            Declaration declaration = innermost.get(atom);
+            if (declaration != null)
+                return declaration.symbol;
+            for (int i = frozen.length - 1; i >= 0; i--) {
+                SymTable.Symbol symbol = frozen[i].symbols.get(atom);
+                if (symbol != null && symbol.order < visible[i])
+                    return symbol;
+            }
+            return null;
+        }
+    }
+
     public class SymTable {
-        public LinkedHashMap<String, Symbol> symTable;
+        public LinkedHashMap<String, Symbol> symTable; // in declaration order
+        private AtomMap<Symbol> symbols = new AtomMap<>();
+        private int[] atomList = new int[8]; // in declaration order
+        private int atomCount = 0;
         private int size = 0;
 
         private SymTable() {
             symTable = new LinkedHashMap<>();
         }
 
+        private void putSymbol(Token token, Symbol symbol) {
+            int atom = atomOf(token);
+            symbol.name = atoms.getName(atom);
+            symTable.put(symbol.name, symbol);
+            symbols.put(atom, symbol);
+            symbol.order = atomCount;
+            if (atomCount == atomList.length)
+                atomList = Arrays.copyOf(atomList, atomCount * 2);
+            atomList[atomCount++] = atom;
+            if (tables != null)
+                tables.declared(this, atom);
+        }
+
         private void checkDuplicated(Token token) throws SyntaxException {
-            if (symTable.containsKey(token.getText().toLowerCase()))
+            if (symbols.containsKey(atomOf(token)))
                 throw new SyntaxException(String.format("Error in pos %s:%s duplicate identifier %s ",
-                        token.getPosX(), token.getPosY(), token.getText()));
+                        token.getPosX(), token.getPosY(), token.getText()), token);
         }
         // Var
         private void addVARSymbol(ArrayList<Node> symbols, Type type, Node value, boolean isPointerParam) throws SyntaxException {
@@ -1254,70 +1674,54 @@ public class Parser {
             for (Node symbol : symbols) {
                 //size += isPointerParam ? 4 : type.getSize();
                 checkDuplicated(symbol.getToken());
-                symTable.put(symbol.token.getText().toLowerCase(), new Symbol(type, value, false, isPointerParam));
+                putSymbol(symbol.getToken(), new Symbol(type, value, false, isPointerParam));
             }
         }
 
         private void addVARSymbol(Token symbol, Type type) throws SyntaxException {
             size += type.getSize();
             checkDuplicated(symbol);
-            symTable.put(symbol.getText().toLowerCase(), new Symbol(type, null, false, false));
+            putSymbol(symbol, new Symbol(type, null, false, false));
         }
         // Const
         private void addCONSTSymbol(Token symbol, Type type, Node value) throws SyntaxException {
             checkDuplicated(symbol);
-            symTable.put(symbol.getText().toLowerCase(), new Symbol(type, value, true, false));
+            putSymbol(symbol, new Symbol(type, value, true, false));
         }
         private void addCONSTSymbol(ArrayList<Node> symbols, Type type, Node value) throws SyntaxException {
             for (Node symbol : symbols) {
                 checkDuplicated(symbol.getToken());
-                symTable.put(symbol.token.getText().toLowerCase(), new Symbol(type, value, true, false));
+                putSymbol(symbol.getToken(), new Symbol(type, value, true, false));
             }
         }
         // Type
         private void addTYPESymbol(Token symbol, Type type) throws SyntaxException {
             checkDuplicated(symbol);
-            symTable.put(symbol.getText().toLowerCase(), new Symbol(type));
-        }
-        // Alias
-        private Type getAliasType(Token token) throws SyntaxException {
-            if (symTable.containsKey(token.getText().toLowerCase()))
-                return symTable.get(token.getText().toLowerCase()).type;
-            throw new SyntaxException(String.format("Error in pos %s:%s identifier not found %s ",
-                    token.getPosX(), token.getPosY(), token.getText()));
-        }
-        // Alias
-        private boolean getAliasTypeFunction(Token token) {
-            return symTable.containsKey(token.getText().toLowerCase());
+            putSymbol(symbol, new Symbol(type));
         }
         // isConst
         private boolean isConst(Token token) {
-            return symTable.get(token.getText().toLowerCase()).isConst;
+            return symbols.get(atomOf(token)).isConst;
         }
         // isType
         private boolean isType(Token token) {
-            return symTable.get(token.getText().toLowerCase()).isType;
-        }
-
-        private Symbol getSymbol(Token token) throws SyntaxException {
-            for (SymTable table : tables)
-                if (table.symTable.containsKey(token.getText().toLowerCase()))
-                    return table.symTable.get(token.getText().toLowerCase());
-            throw new SyntaxException(String.format("Error in pos %s:%s identifier not found %s ",
-                    token.getPosX(), token.getPosY(), token.getText()));
+            return symbols.get(atomOf(token)).isType;
         }
 
         private LinkedHashMap<String, Integer> offsets = new LinkedHashMap<>();
+        private int offsetCount = 0; // symbols laid out, the offsets of the first ones never change
+        private int offsetEnd = 0;
 
+        // lays out the symbols declared since the last call
         public void calculateOffsets() {
-            int offset = 0;
-            for (Map.Entry<String, Symbol> entry : symTable.entrySet()) {
-                if (entry.getValue().isType) {
-                    offsets.put(entry.getKey(), 0);
+            for (; offsetCount < atomCount; offsetCount++) {
+                Symbol symbol = symbols.get(atomList[offsetCount]);
+                if (symbol.isType) {
+                    offsets.put(symbol.name, 0);
                     continue;
                 }
-                offset += entry.getValue().isPointerParam ? 4 : entry.getValue().type.getSize();
-                offsets.put(entry.getKey(), offset);
+                offsetEnd += symbol.isPointerParam ? 4 : symbol.type.getSize();
+                offsets.put(symbol.name, offsetEnd);
             }
         }
 
@@ -1342,7 +1746,9 @@ public class Parser {
             public boolean isType = false;
             public boolean isConst = false;
             public boolean isPointerParam = false;
-
+            private String name;
+            private int order; // of the declaration in its table
+            private int fieldOffset; // from the start of the record holding it
             private Symbol(Type type, Node value, boolean isConst, boolean isPointerParam) {
                 this.type = type;
                 this.value = value;
@@ -1357,60 +1763,221 @@ public class Parser {
 
         }
 
-        public void genCode(CodeAsm asm) {
+        // Functions of the table, each into a part forked from asm with constants of its own. Parts are
+        // appended in the order of declaration
+        public void genCode(CodeAsm asm, CodeParts parts) { genCode(asm, parts, ""); }
+
+        // path of the function the table is declared in, it goes before the names of its functions
+        private void genCode(CodeAsm asm, CodeParts parts, String path) {
+            for (Map.Entry<String, Symbol> entry : symTable.entrySet())
+                if (needsCode(entry.getValue()))
+                    parts.append(asm, genFunction(parts.fork(asm), parts, entry.getKey(), path + entry.getKey(),
+                            (FunctionType)entry.getValue().type));
+        }
+
+        // the same code, functions are generated side by side on the pool. All parts are forked before
+        // the first one is appended
+        public void genCode(CodeAsm asm, CodeParts parts, ForkJoinPool pool) {
+            ArrayList<ForkJoinTask<CodeAsm>> tasks = new ArrayList<>();
             for (Map.Entry<String, Symbol> entry : symTable.entrySet()) {
-                if (entry.getValue().type.category == Category.FUNCTION) {
+                if (needsCode(entry.getValue())) {
+                    CodeAsm part = parts.fork(asm);
                     FunctionType type = (FunctionType)entry.getValue().type;
-                    asm.startFunction(type.params, type.vars, entry.getKey());
-                    type.vars.genCode(asm);
-                    type.compound_statement.genAsmCode(asm, false);
-                    asm.endFunction();
+                    tasks.add(pool.submit(() -> genFunction(part, parts, entry.getKey(), entry.getKey(), type)));
                 }
             }
+            for (ForkJoinTask<CodeAsm> task : tasks)
+                parts.append(asm, task.join());
+        }
+
+        // functions handed to a CodeSink have got their code already
+        private boolean needsCode(Symbol symbol) {
+            return symbol.type.category == Category.FUNCTION && ((FunctionType)symbol.type).vars != null;
+        }
+
+        private CodeAsm genFunction(CodeAsm part, CodeParts parts, String name, String path, FunctionType type) {
+            part.startFunction(type.params, type.vars, name);
+            type.vars.genCode(part, parts, path + ".");
+            type.requireBody().genAsmCode(new PartAsm(part, path + "@"), false);
+            part.endFunction();
+            return part;
+        }
+    }
+
+    // Asm of one function body with labels and frames of its own. Labels are numbered from 0 in every
+    // body and carry the path of its function, so bodies generated apart never share one
+    static class PartAsm {
+        final CodeAsm asm;
+        private final String labelPrefix;
+        private int labelCount = 0;
+        private final HashMap<SymTable.Symbol, Frame> frames = new HashMap<>(); // asked of asm once per body
+
+        PartAsm(CodeAsm asm, String labelPrefix) {
+            this.asm = asm;
+            this.labelPrefix = labelPrefix;
+        }
+
+        String getLabelName(String name) { return labelPrefix + name + labelCount++; }
+
+        Frame getFrame(SymTable.Symbol symbol) {
+            Frame frame = frames.get(symbol);
+            if (frame == null) {
+                javafx.util.Pair<Integer, Integer> offset = asm.getOffset(symbol.name);
+                frames.put(symbol, frame = new Frame(offset.getKey(), offset.getValue()));
+            }
+            return frame;
+        }
+    }
+
+    // frame of a symbol as seen from a function body
+    private static class Frame {
+        final int link;
+        final int offset;
+
+        Frame(int link, int offset) {
+            this.link = link;
+            this.offset = offset;
         }
     }
 
     // Node......
     
+    // kinds of the rows of the arena, a row is viewed as the node class of its kind
+    private static final int VAR_NODE = 0, CONST_NODE = 1, BIN_OP_NODE = 2, UNARY_MINUS_NODE = 3, NOT_NODE = 4,
+            TYPED_CONSTANT_NODE = 5, BODY_NODE = 6, ASSIGN_NODE = 7, IF_NODE = 8, WHILE_NODE = 9, FOR_NODE = 10,
+            INDEX_NODE = 11, FIELD_NODE = 12, PARAMS_NODE = 13, CAST_NODE = 14, WRITE_NODE = 15, CALL_NODE = 16,
+            CONTINUE_NODE = 17, BREAK_NODE = 18, EXIT_NODE = 19, READ_NODE = 20;
+
+    // the node of a row, or null for a child not set
+    private Node view(NodeArena arena, int row) {
+        if (row < 0)
+            return null;
+        switch (arena.getKind(row)) {
+            case VAR_NODE:            return new VarNode(arena, row);
+            case CONST_NODE:          return new ConstNode(arena, row);
+            case BIN_OP_NODE:         return new BinOpNode(arena, row);
+            case UNARY_MINUS_NODE:    return new UnaryMinusNode(arena, row);
+            case NOT_NODE:            return new NotNode(arena, row);
+            case TYPED_CONSTANT_NODE: return new TypedConstant(arena, row);
+            case BODY_NODE:           return new BodyFunction(arena, row);
+            case ASSIGN_NODE:         return new AssignStatement(arena, row);
+            case IF_NODE:             return new IfNode(arena, row);
+            case WHILE_NODE:          return new WhileNode(arena, row);
+            case FOR_NODE:            return new ForNode(arena, row);
+            case INDEX_NODE:          return new IndexNode(arena, row);
+            case FIELD_NODE:          return new FieldAccessNode(arena, row);
+            case PARAMS_NODE:         return new ParamListNode(arena, row);
+            case CAST_NODE:           return new CastNode(arena, row);
+            case WRITE_NODE:          return new WriteNode(arena, row);
+            case CALL_NODE:           return new FunctionCallNode(arena, row);
+            case CONTINUE_NODE:       return new ContinueNode(arena, row);
+            case BREAK_NODE:          return new BreakNode(arena, row);
+            case EXIT_NODE:           return new ExitNode(arena, row);
+            case READ_NODE:           return new ReadNode(arena, row);
+            default:
+                throw new IllegalStateException("Unknown node kind " + arena.getKind(row));
+        }
+    }
+
+    // A view on a row of an arena. Views are made when asked for and hold nothing of the tree
     public class Node {
-        ArrayList<Node> children;
-        Token token;
-        Type type;
+        final NodeArena arena; // of the parser when the node is made
+        final int id; // row of the node in the arena
 
-        private Node(ArrayList<Node> children, Token token) { this.children = children; this.token = token; }
+        private Node(int kind, Token token) { this(kind, Parser.this.arena.addToken(token)); }
+
+        private Node(int kind, int tokenRow) {
+            arena = Parser.this.arena;
+            id = arena.addNode(kind, tokenRow);
+        }
+
+        private Node(NodeArena arena, int id) {
+            this.arena = arena;
+            this.id = id;
+        }
 
         @Override
         public String toString() {
-            return token.getText();
+            return getText();
         }
 
-        public void print(int lengthPrefix) { print(spaces.toString(), true); }
+        // the tree from this node on
+        public void accept(TreeVisitor visitor) {
+            visitor.enterTree();
+            accept(visitor, id, true);
+            visitor.leaveTree();
+        }
 
-        private void print(String prefix, boolean isTail) {
-            System.out.println(prefix + (isTail ? "└── " : "├── ") + token.getText());
-            if (children != null) {
-                String spaces = new String(new char[token.getText().length() - 1]).replace('\0', ' ');
-                String newPrefix = prefix + (isTail ? "    " : "|   ") + spaces;
-                if (children.size() == 0) return;
-                for (int i = 0; i < children.size() - 1; i++) {
-                    children.get(i).print(newPrefix, false);
-                }
-                children.get(children.size() - 1).print(newPrefix, true);
+        private void accept(TreeVisitor visitor, int row, boolean isLast) {
+            visitor.enterNode(arena.getText(arena.getTokenRow(row)), isLast);
+            int count = arena.getChildCount(row);
+            for (int i = 0; i < count; i++) {
+                int child = arena.getChild(row, i);
+                if (child >= 0) // a part left out, like the else of an if
+                    accept(visitor, child, i == count - 1);
             }
+            visitor.leaveNode();
         }
 
-        public void setChildren(ArrayList<Node> children) { this.children = children; }
+        int getTokenRow() { return arena.getTokenRow(id); }
+
+        public Token getToken() { return arena.getToken(getTokenRow()); }
 
-        public Token getToken() { return token; }
+        public String getText() { return arena.getText(getTokenRow()); }
 
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            for (Node node : children)
-                node.genAsmCode(asm, isLeft);
+        public TokenValue getTokenValue() { return arena.getPair(getTokenRow()).getTokenValue(); }
+
+        public Type getType() { return arena.getType(id); }
+
+        void setType(Type type) { arena.setType(id, type); }
+
+        public Node getChild(int index) { return view(arena, arena.getChild(id, index)); }
+
+        public void setChild(int index, Node child) { arena.setChild(id, index, rowOf(child)); }
+
+        public void addChild(Node child) { arena.addChild(id, rowOf(child)); }
+
+        // children are rows of the arena of their parent, -1 for a child not set
+        private int rowOf(Node child) {
+            if (child == null)
+                return -1;
+            if (child.arena != arena)
+                throw new IllegalArgumentException("Node " + child + " is of another tree");
+            return child.id;
+        }
+
+        public Node getLastChild() {
+            int count = arena.getChildCount(id);
+            return count == 0 ? null : getChild(count - 1);
+        }
+
+        public int getChildCount() { return arena.getChildCount(id); }
+
+        public Iterable<Node> getChildren() {
+            return () -> new Iterator<Node>() {
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() { return index < arena.getChildCount(id); }
+
+                @Override
+                public Node next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return getChild(index++);
+                }
+            };
+        }
+
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            for (Node node : getChildren())
+                node.genAsmCode(part, isLeft);
         }
 
     }
 
-    public void putValueOnStack(CodeAsm asm, Type type) {
+    public void putValueOnStack(PartAsm part, Type type) {
+        CodeAsm asm = part.asm;
         asm.add(CommandAsm.CommandType.POP, RegisterType.EAX);
         switch (type.category) {
             case CHAR:
@@ -1429,7 +1996,7 @@ public class Parser {
             case ARRAY:
                 asm.add(CommandAsm.CommandType.ADD, RegisterType.EAX, type.getSize() - 4);
                 asm.add(CommandAsm.CommandType.MOV, RegisterType.ECX, type.getSize() / 4);
-                String label = asm.getLabelName("COPYSTRUCT");
+                String label = part.getLabelName("COPYSTRUCT");
                 asm.add(CommandAsm.CommandType.LABEL, label);
                 asm.add(CommandAsm.CommandType.PUSH, DataType.DWORD, RegisterType.EAX, 0);
                 asm.add(CommandAsm.CommandType.SUB, RegisterType.EAX, 4);
@@ -1438,60 +2005,91 @@ public class Parser {
     }
 
     public class VarNode extends Node {
-        public VarNode(Token token) { super(null, token); }
-        public VarNode(Token token, Type type) { super(new ArrayList<>(), token); this.type = type; }
-        public VarNode(ArrayList<Node> children, Token token) { super(children, token); }
+        public VarNode(Token token) { super(VAR_NODE, token); }
+        public VarNode(Token token, Type type) { super(VAR_NODE, token); setType(type); }
+        public VarNode(Token token, SymTable.Symbol symbol) {
+            this(token, symbol.type);
+            arena.setValue(id, arena.intern(symbol));
+        }
+        private VarNode(NodeArena arena, int id) { super(arena, id); }
+
+        // the variable it refers to, bound when parsed
+        SymTable.Symbol getSymbol() { return (SymTable.Symbol)arena.getObject((int)arena.getValue(id)); }
 
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            String name = token.getText().toLowerCase();
-            javafx.util.Pair<Integer, Integer> offset = asm.getOffset(name);
-            asm.add(CommandAsm.CommandType.MOV, RegisterType.EAX, DataType.DWORD, RegisterType.EBP, offset.getKey());
-            asm.add(CommandAsm.CommandType.SUB, RegisterType.EAX, offset.getValue());
-            if (asm.isVar(name))
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
+            SymTable.Symbol symbol = getSymbol();
+            Frame frame = part.getFrame(symbol);
+            asm.add(CommandAsm.CommandType.MOV, RegisterType.EAX, DataType.DWORD, RegisterType.EBP, frame.link);
+            asm.add(CommandAsm.CommandType.SUB, RegisterType.EAX, frame.offset);
+            if (symbol.isPointerParam)
                 asm.add(CommandAsm.CommandType.PUSH, DataType.DWORD, RegisterType.EAX, 0);
             else
                 asm.add(CommandAsm.CommandType.PUSH, RegisterType.EAX);
             if (!isLeft)
-                putValueOnStack(asm, asm.getType(name));
+                putValueOnStack(part, symbol.type);
         }
     }
 
 
     public class ConstNode extends Node {
-        Object result;
+        public ConstNode(Token token, long value) {
+            super(CONST_NODE, token);
+            setType(IntType());
+            arena.setValue(id, value);
+        }
+
+        public ConstNode(Token token, double value) {
+            super(CONST_NODE, token);
+            setType(DoubleType());
+            arena.setValue(id, Double.doubleToRawLongBits(value));
+        }
+
+        // a char constant, the text is the one of its token
+        public ConstNode(Token token, String text) {
+            super(CONST_NODE, token);
+            setType(CharType());
+            arena.setValue(id, text.isEmpty() ? 0 : text.charAt(0));
+        }
 
-        public ConstNode(Type type, Object result) { // change plz
-            super(null, new Token(result, new Pair(TokenType.IDENTIFIER, type.category == Category.INT
-                    ? TokenValue.CONST_INTEGER : TokenValue.CONST_DOUBLE)));
-            this.type = type;
-            this.result = result;
+        // a folded constant
+        public ConstNode(long value) {
+            this(new Token(String.valueOf(value), new Pair(TokenType.IDENTIFIER, TokenValue.CONST_INTEGER)), value);
         }
-        public ConstNode(Token token, Type type, Object result) {
-            super(null, token);
-            this.result = result;
-            this.type = type;
+
+        public ConstNode(double value) {
+            this(new Token(String.valueOf(value), new Pair(TokenType.IDENTIFIER, TokenValue.CONST_DOUBLE)), value);
         }
 
+        private ConstNode(NodeArena arena, int id) { super(arena, id); }
+
+        // an integer, or the code of the first char of a char constant
+        long getValue() { return arena.getValue(id); }
+
+        double getDoubleValue() { return Double.longBitsToDouble(arena.getValue(id)); }
+
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            switch (this.type.category) {
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
+            String text = getText();
+            switch (getType().category) {
                 case INT:
-                    asm.add(CommandAsm.CommandType.PUSH, Integer.parseInt(result.toString()));
+                    asm.add(CommandAsm.CommandType.PUSH, (int)getValue());
                     break;
                 case CHAR:
-                    if (result.toString().length() > 1) {
-                        String constant = asm.addStringConstant(result.toString());
+                    if (text.length() > 1) {
+                        String constant = asm.addStringConstant(text);
                         asm.add(CommandAsm.CommandType.PUSH, constant);
                     }
                     else {
                         asm.add(CommandAsm.CommandType.SUB, RegisterType.ESP, 1);
                         asm.add(CommandAsm.CommandType.MOV, DataType.BYTE, RegisterType.ESP, 0,
-                                (result.toString().codePointAt(0)));
+                                (text.codePointAt(0)));
                     }
                     break;
                 case DOUBLE:
-                    String s = asm.addDoubleConstant(Double.parseDouble(result.toString()));
+                    String s = asm.addDoubleConstant(getDoubleValue());
                     asm.add(CommandAsm.CommandType.PUSH, DataType.DWORD, s, 4);
                     asm.add(CommandAsm.CommandType.PUSH, DataType.DWORD, s, 0);
                     break;
@@ -1535,10 +2133,11 @@ public class Parser {
         put(OP_NOT_EQUAL, CommandType.JNP);
     }};
 
-    public void compareToAsm(CodeAsm asm, Node node) {
-        node.children.get(0).genAsmCode(asm, false);
-        node.children.get(1).genAsmCode(asm, false);
-        Type leftType = node.children.get(0).type;
+    public void compareToAsm(PartAsm part, Node node) {
+        CodeAsm asm = part.asm;
+        node.getChild(0).genAsmCode(part, false);
+        node.getChild(1).genAsmCode(part, false);
+        Type leftType = node.getChild(0).getType();
         CommandType commandType;
         switch (leftType.category) {
             case CHAR:
@@ -1546,25 +2145,25 @@ public class Parser {
                 asm.add(CommandType.MOVSX, RegisterType.EAX, DataType.BYTE, RegisterType.ESP, 1);
                 asm.add(CommandType.SUB, RegisterType.ESP, 2);
                 asm.add(CommandType.CMP, RegisterType.EAX, RegisterType.EBX);
-                commandType = operationsInt.get(node.token.getTokenValue());
+                commandType = operationsInt.get(node.getTokenValue());
                 break;
             case INT:
                 asm.add(CommandType.POP, RegisterType.EBX);
                 asm.add(CommandType.CMP, DataType.DWORD, RegisterType.ESP, 0, RegisterType.EBX);
-                commandType = operationsInt.get(node.token.getTokenValue());
+                commandType = operationsInt.get(node.getTokenValue());
                 break;
             case DOUBLE:
-                boolean isEqual = node.token.getTokenValue() == OP_EQUAL || node.token.getTokenValue() == OP_NOT_EQUAL;
+                boolean isEqual = node.getTokenValue() == OP_EQUAL || node.getTokenValue() == OP_NOT_EQUAL;
                 CommandType compareType = isEqual ? CommandType.UCOMISD : CommandType.COMISD;
                 asm.add(CommandType.MOVSD, RegisterType.XMM0, DataType.QWORD, RegisterType.ESP, 8);
                 asm.add(CommandType.MOVSD, RegisterType.XMM1, DataType.QWORD, RegisterType.ESP, 0);
                 asm.add(CommandType.ADD, RegisterType.ESP, 12);
                 asm.add(compareType, RegisterType.XMM0, RegisterType.XMM1);
-                commandType = operationsDouble.get(node.token.getTokenValue());
+                commandType = operationsDouble.get(node.getTokenValue());
                 if (!isEqual)
                     break;
-                String label = asm.getLabelName("CONDFAIL");
-                String endLabel = asm.getLabelName("ENDCOND");
+                String label = part.getLabelName("CONDFAIL");
+                String endLabel = part.getLabelName("ENDCOND");
                 asm.add(CommandType.LAHF);
                 asm.add(CommandType.TEST, RegisterType.AH, 68);
                 asm.add(commandType, label);
@@ -1584,29 +2183,35 @@ public class Parser {
     }
 
     public class BinOpNode extends Node {
-        public BinOpNode(ArrayList<Node> children, Token token, Type type) {
-            super(children, token);
-            this.type = type;
+        public BinOpNode(Node left, Node right, Token token, Type type) {
+            super(BIN_OP_NODE, token);
+            addChild(left);
+            addChild(right);
+            setType(type);
         }
 
+        private BinOpNode(NodeArena arena, int id) { super(arena, id); }
+
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            if (isLogical(token.getTokenValue())) {
-                compareToAsm(asm, this);
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
+            Type type = getType();
+            if (isLogical(getTokenValue())) {
+                compareToAsm(part, this);
                 return;
             }
-            children.get(0).genAsmCode(asm, false);
-            if (children.size() == 1) {
-                if (token.getTokenValue() == OP_MINUS)
+            getChild(0).genAsmCode(part, false);
+            if (getChildCount() == 1) {
+                if (getTokenValue() == OP_MINUS)
                     if (type.category == Category.DOUBLE)
                         asm.add(CommandType.XOR, DataType.BYTE, RegisterType.ESP, 7, 128);
                     else
                         asm.add(CommandType.NEG, DataType.DWORD, RegisterType.ESP, 0);
-                else if (token.getTokenValue() == KEYWORD_NOT)
+                else if (getTokenValue() == KEYWORD_NOT)
                     asm.add(CommandType.NOT, DataType.DWORD, RegisterType.ESP, 0);
                 return;
             }
-            children.get(1).genAsmCode(asm, false);
+            getChild(1).genAsmCode(part, false);
             CommandType commandType;
             RegisterType reg1, reg2;
             if (type.category == Category.DOUBLE) {
@@ -1615,11 +2220,11 @@ public class Parser {
                 asm.add(CommandType.MOVSD, reg2, DataType.QWORD, RegisterType.ESP, 0);
                 asm.add(CommandType.ADD, RegisterType.ESP, 8);
                 asm.add(CommandType.MOVSD, reg1, DataType.QWORD, RegisterType.ESP, 0);
-                commandType = operationsDouble.get(token.getTokenValue());
+                commandType = operationsDouble.get(getTokenValue());
             } else {
                 reg1 = RegisterType.EAX;
                 reg2 = RegisterType.EBX;
-                commandType = operationsInt.get(token.getTokenValue());
+                commandType = operationsInt.get(getTokenValue());
                 if (commandType == CommandType.SHL || commandType == CommandType.SHR) {
                     reg2 = RegisterType.CL;
                     asm.add(CommandType.MOV, RegisterType.EBX, RegisterType.ECX);
@@ -1638,7 +2243,7 @@ public class Parser {
             if (type.category == Category.DOUBLE)
                 asm.add(CommandType.MOVSD, DataType.QWORD, RegisterType.ESP, 0, reg1);
             else
-                asm.add(CommandType.PUSH, token.getTokenValue() == KEYWORD_MOD ? RegisterType.EDX : reg1);
+                asm.add(CommandType.PUSH, getTokenValue() == KEYWORD_MOD ? RegisterType.EDX : reg1);
             if (commandType == CommandType.SHL || commandType == CommandType.SHR)
                 asm.add(CommandType.MOV, RegisterType.ECX, RegisterType.EBX);
         }
@@ -1648,15 +2253,19 @@ public class Parser {
     }
 
     public class UnaryMinusNode extends Node {
-        public UnaryMinusNode(ArrayList<Node> children, Token token) {
-            super(children, token);
-            this.type = children.get(0).type;
+        public UnaryMinusNode(Node factor, Token token) {
+            super(UNARY_MINUS_NODE, token);
+            addChild(factor);
+            setType(factor.getType());
         }
 
+        private UnaryMinusNode(NodeArena arena, int id) { super(arena, id); }
+
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            children.get(0).genAsmCode(asm, false);
-            if (type.category == Category.DOUBLE)
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
+            getChild(0).genAsmCode(part, false);
+            if (getType().category == Category.DOUBLE)
                 asm.add(CommandType.XOR, DataType.BYTE, RegisterType.ESP, 7, 128);
             else
                 asm.add(CommandType.NEG, DataType.DWORD, RegisterType.ESP, 0);
@@ -1664,37 +2273,51 @@ public class Parser {
     }
 
     public class NotNode extends Node {
-        public NotNode(ArrayList<Node> children, Token token) {
-            super(children, token);
-            this.type = children.get(0).type;
+        public NotNode(Node factor, Token token) {
+            super(NOT_NODE, token);
+            addChild(factor);
+            setType(factor.getType());
         }
+
+        private NotNode(NodeArena arena, int id) { super(arena, id); }
     }
 
     public class TypedConstant extends Node {
         public TypedConstant(Type type) {
-            super(new ArrayList<>(), new Token("typed_constant", new Pair(TokenType.IDENTIFIER, VARIABLE)));
-            this.type = type;
+            super(TYPED_CONSTANT_NODE, Parser.this.arena.share(TYPED_CONSTANT));
+            setType(type);
         }
 
+        private TypedConstant(NodeArena arena, int id) { super(arena, id); }
+
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            super.genAsmCode(asm, isLeft);
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            super.genAsmCode(part, isLeft);
         }
     }
 
     public class BodyFunction extends Node {
-        public BodyFunction() { super(new ArrayList<>(), new Token("statements", new Pair(TokenType.IDENTIFIER, VARIABLE))); }
+        public BodyFunction() { super(BODY_NODE, Parser.this.arena.share(STATEMENTS)); }
+
+        private BodyFunction(NodeArena arena, int id) { super(arena, id); }
     }
 
     public class AssignStatement extends Node {
         public AssignStatement(Node identifier, Node expression) {
-            super(getList(identifier, expression), new Token(":=", new Pair(TokenType.KEYWORD, KEYWORD_ASSIGN))); }
+            super(ASSIGN_NODE, Parser.this.arena.share(ASSIGN));
+            addChild(identifier);
+            addChild(expression);
+        }
+
+        private AssignStatement(NodeArena arena, int id) { super(arena, id); }
 
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            children.get(0).genAsmCode(asm, true);
-            children.get(1).genAsmCode(asm, !children.get(1).type.isScalar());
-            Type type = children.get(1).type;
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
+            Node expression = getChild(1);
+            getChild(0).genAsmCode(part, true);
+            expression.genAsmCode(part, !expression.getType().isScalar());
+            Type type = expression.getType();
             type = type.category == Category.FUNCTION ? ((FunctionType)type).returnType : type;
             switch (type.category) {
                 case INT:
@@ -1718,8 +2341,8 @@ public class Parser {
                 case RECORD:
                     asm.add(CommandAsm.CommandType.POP, RegisterType.EAX);
                     asm.add(CommandAsm.CommandType.POP, RegisterType.EBX);
-                    asm.add(CommandAsm.CommandType.MOV, RegisterType.ECX, children.get(1).type.getSize() / 4);
-                    String label = asm.getLabelName("COPYSTRUCT");
+                    asm.add(CommandAsm.CommandType.MOV, RegisterType.ECX, expression.getType().getSize() / 4);
+                    String label = part.getLabelName("COPYSTRUCT");
                     asm.add(CommandAsm.CommandType.LABEL, label);
                     asm.add(CommandAsm.CommandType.MOV, RegisterType.EDX, DataType.DWORD, RegisterType.EAX, 0);
                     asm.add(CommandAsm.CommandType.MOV, DataType.DWORD, RegisterType.EBX, 0, RegisterType.EDX);
@@ -1732,65 +2355,78 @@ public class Parser {
     }
 
     public class IfNode extends Node {
-        public IfNode() { super(getTmpLists(2), new Token("if", new Pair(TokenType.KEYWORD, KEYWORD_IF))); }
+        public IfNode() {
+            super(IF_NODE, Parser.this.arena.share(IF));
+            addChild(null);
+            addChild(null);
+        }
+
+        private IfNode(NodeArena arena, int id) { super(arena, id); }
 
-        public Node getIf_() { return this.children.get(0); }
+        public Node getIf_() { return getChild(0); }
 
-        public Node getThen_() { return this.children.get(1); }
+        public Node getThen_() { return getChild(1); }
 
-        public Node getElse_() { return children.size() > 2 ? this.children.get(2) : null; }
+        public Node getElse_() { return getChildCount() > 2 ? getChild(2) : null; }
 
-        public void setIf_(Node if_) { this.children.set(0, if_); }
+        public void setIf_(Node if_) { setChild(0, if_); }
 
-        public void setThen_(Node then_) { this.children.set(1, then_); }
+        public void setThen_(Node then_) { setChild(1, then_); }
 
         public void setElse_(Node else_) {
-            this.children.add(null);
             //else_.token = new Token("else", new Pair(TokenType.IDENTIFIER, VARIABLE));
-            this.children.set(2, else_);
+            addChild(else_);
         }
 
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            String elseLabel = asm.getLabelName("IFFAIL");
-            String endLabel = asm.getLabelName("IFEND");
-            getIf_().genAsmCode(asm, false);
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
+            String elseLabel = part.getLabelName("IFFAIL");
+            String endLabel = part.getLabelName("IFEND");
+            getIf_().genAsmCode(part, false);
             asm.add(CommandType.POP, RegisterType.EAX);
             asm.add(CommandType.TEST, RegisterType.EAX, RegisterType.EAX);
             asm.add(CommandType.JZ, elseLabel);
             if (getThen_() != null)
-                getThen_().genAsmCode(asm, false);
+                getThen_().genAsmCode(part, false);
             asm.add(CommandType.JMP, endLabel);
             asm.add(CommandType.LABEL, elseLabel);
             if (getElse_() != null)
-                getElse_().genAsmCode(asm, false);
+                getElse_().genAsmCode(part, false);
             asm.add(CommandType.LABEL, endLabel);
         }
     }
 
     public class WhileNode extends Node {
-        public WhileNode() { super(getTmpLists(2), new Token("while", new Pair(TokenType.IDENTIFIER, VARIABLE))); }
+        public WhileNode() {
+            super(WHILE_NODE, Parser.this.arena.share(WHILE));
+            addChild(null);
+            addChild(null);
+        }
+
+        private WhileNode(NodeArena arena, int id) { super(arena, id); }
 
-        public Node getCondition() { return this.children.get(0); }
+        public Node getCondition() { return getChild(0); }
 
-        public Node getBody() { return this.children.get(1); }
+        public Node getBody() { return getChild(1); }
 
-        public void setCondition(Node condition) { this.children.set(0, condition); }
+        public void setCondition(Node condition) { setChild(0, condition); }
 
-        public void setBody(Node body) { this.children.set(1, body); }
+        public void setBody(Node body) { setChild(1, body); }
 
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            String bodyLabel = asm.getLabelName("WHILEBODY");
-            String condLabel = asm.getLabelName("WHILECOND");
-            String endLabel  = asm.getLabelName("WHILEEND");
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
+            String bodyLabel = part.getLabelName("WHILEBODY");
+            String condLabel = part.getLabelName("WHILECOND");
+            String endLabel  = part.getLabelName("WHILEEND");
             asm.pushLoopStart(condLabel);
             asm.pushLoopEnd(endLabel);
             asm.add(CommandType.JMP, condLabel);
             asm.add(CommandType.LABEL, bodyLabel);
-            getBody().genAsmCode(asm, false);
+            getBody().genAsmCode(part, false);
             asm.add(CommandType.LABEL, condLabel);
-            getCondition().genAsmCode(asm, false);
+            getCondition().genAsmCode(part, false);
             asm.add(CommandType.POP, RegisterType.EAX);
             asm.add(CommandType.TEST, RegisterType.EAX, RegisterType.EAX);
             asm.add(CommandType.JNZ, bodyLabel);
@@ -1801,55 +2437,71 @@ public class Parser {
     }
 
     public class ForNode extends Node {
-        public SymTable.Symbol counter;
-        public boolean isDownTo = false;
-
         public ForNode(SymTable.Symbol counter, Token token) {
-            super(getTmpLists(5), token);
-            this.counter = counter;
+            super(FOR_NODE, token);
+            for (int i = 0; i < 5; i++)
+                addChild(null);
+            arena.setValue(id, arena.intern(counter));
+        }
+
+        private ForNode(NodeArena arena, int id) { super(arena, id); }
+
+        // the value is the index of the counter, or its complement for a downto loop
+        public SymTable.Symbol getCounter() {
+            long value = arena.getValue(id);
+            return (SymTable.Symbol)arena.getObject((int)(value < 0 ? ~value : value));
+        }
+
+        public boolean isDownTo() { return arena.getValue(id) < 0; }
+
+        public void setDownTo() {
+            if (!isDownTo())
+                arena.setValue(id, ~arena.getValue(id));
         }
 
-        public Node getFrom() { return this.children.get(1); }
+        public Node getFrom() { return getChild(1); }
 
-        public Node getTo() { return this.children.get(3); }
+        public Node getTo() { return getChild(3); }
 
-        public Node getBody() { return this.children.get(4); }
+        public Node getBody() { return getChild(4); }
 
-        public void setFromName(Node fromName) { this.children.set(0, fromName); }
+        public void setFromName(Node fromName) { setChild(0, fromName); }
 
-        public void setFrom(Node from) { this.children.set(1, from); }
+        public void setFrom(Node from) { setChild(1, from); }
 
-        private void setToName(Token to) {this.children.set(2, new VarNode(to, NIL())); }
+        private void setToName(Token to) { setChild(2, new VarNode(to, NIL())); }
 
-        public void setTo(Node to) { this.children.set(3, to); }
+        public void setTo(Node to) { setChild(3, to); }
 
-        public void setBody(Node body) { this.children.set(4, body); }
+        public void setBody(Node body) { setChild(4, body); }
 
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
             //asm.add(CommandType.SUB, RegisterType.ESP, 12);
-            String bodyLabel = asm.getLabelName("LOOPBODY");
-            String condLabel = asm.getLabelName("LOOPCOND");
-            String endLabel  = asm.getLabelName("LOOPEND");
+            boolean isDownTo = isDownTo();
+            String bodyLabel = part.getLabelName("LOOPBODY");
+            String condLabel = part.getLabelName("LOOPCOND");
+            String endLabel  = part.getLabelName("LOOPEND");
             asm.incForCount();
             asm.pushLoopStart(condLabel);
             asm.pushLoopEnd(endLabel);
-            getTo().genAsmCode(asm, false);
-            getFrom().genAsmCode(asm, false);
-            javafx.util.Pair<Integer, Integer> offset = asm.getOffset(children.get(0).token.getText().toLowerCase());
+            getTo().genAsmCode(part, false);
+            getFrom().genAsmCode(part, false);
+            Frame frame = part.getFrame(getCounter());
             asm.add(CommandType.POP, RegisterType.EAX);
-            asm.add(CommandType.MOV, RegisterType.EBX, DataType.DWORD, RegisterType.EBP, offset.getKey());
-            asm.add(CommandType.MOV, DataType.DWORD, RegisterType.EBX, -offset.getValue(), RegisterType.EAX);
-            asm.add(isDownTo ? CommandType.INC : CommandType.DEC, DataType.DWORD, RegisterType.EBX, -offset.getValue());
+            asm.add(CommandType.MOV, RegisterType.EBX, DataType.DWORD, RegisterType.EBP, frame.link);
+            asm.add(CommandType.MOV, DataType.DWORD, RegisterType.EBX, -frame.offset, RegisterType.EAX);
+            asm.add(isDownTo ? CommandType.INC : CommandType.DEC, DataType.DWORD, RegisterType.EBX, -frame.offset);
             asm.add(CommandType.JMP, condLabel);
             asm.add(CommandType.LABEL, bodyLabel);
-            if (children.size() == 5 && getBody() != null)
-                getBody().genAsmCode(asm, false);
+            if (getChildCount() == 5 && getBody() != null)
+                getBody().genAsmCode(part, false);
             asm.add(CommandType.LABEL, condLabel);
-            asm.add(CommandType.MOV, RegisterType.EBX, DataType.DWORD, RegisterType.EBP, offset.getKey());
-            asm.add(isDownTo ? CommandType.DEC : CommandType.INC, DataType.DWORD, RegisterType.EBX, -offset.getValue());
+            asm.add(CommandType.MOV, RegisterType.EBX, DataType.DWORD, RegisterType.EBP, frame.link);
+            asm.add(isDownTo ? CommandType.DEC : CommandType.INC, DataType.DWORD, RegisterType.EBX, -frame.offset);
             asm.add(CommandType.MOV, RegisterType.EAX, DataType.DWORD, RegisterType.ESP, 0);
-            asm.add(CommandType.CMP, DataType.DWORD, RegisterType.EBX, -offset.getValue(), RegisterType.EAX);
+            asm.add(CommandType.CMP, DataType.DWORD, RegisterType.EBX, -frame.offset, RegisterType.EAX);
             asm.add(isDownTo ? CommandType.JGE : CommandType.JLE, bodyLabel);
             asm.add(CommandType.LABEL, endLabel);
             asm.add(CommandType.ADD, RegisterType.ESP, 4);
@@ -1861,88 +2513,103 @@ public class Parser {
     }
 
     private class IndexNode extends Node {
-        public IndexNode(ArrayList<Node> children, Type type) {
-            super(children, new Token("[]", new Pair(TokenType.SEPARATOR, SEP_BRACKETS_SQUARE_LEFT)));
-            this.type = type;
+        public IndexNode(Node variable, Node index, Type type) {
+            super(INDEX_NODE, Parser.this.arena.share(INDEX));
+            addChild(variable);
+            addChild(index);
+            setType(type);
         }
 
+        private IndexNode(NodeArena arena, int id) { super(arena, id); }
+
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            children.get(1).genAsmCode(asm, false);
-            children.get(0).genAsmCode(asm, true);
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
+            Node variable = getChild(0);
+            getChild(1).genAsmCode(part, false);
+            variable.genAsmCode(part, true);
             asm.add(CommandType.POP, RegisterType.ECX);
             asm.add(CommandType.POP, RegisterType.EAX);
-            Type variableType = children.get(0).type;
+            Type variableType = variable.getType();
             ConstNode min = ((ArrayType)variableType).min;
-            int minValue = Integer.parseInt(min.result.toString());
-            //int index = Integer.parseInt(((ConstNode)children.get(1)).result.toString());
+            int minValue = (int)min.getValue();
+            //int index = Integer.parseInt(((ConstNode)getChild(1)).result.toString());
             if (minValue != 0)
                 asm.add(CommandType.SUB, RegisterType.EAX, minValue);
-            ArrayType arrayType = (ArrayType)children.get(0).type;
-            asm.add(CommandType.MOV, RegisterType.EBX, arrayType.elementType.getSize());
+            ArrayType arrayType = (ArrayType)variableType;
+            asm.add(CommandType.MOV, RegisterType.EBX, arrayType.stride);
             asm.add(CommandType.IMUL, RegisterType.EBX);
             asm.add(CommandType.ADD, RegisterType.ECX, RegisterType.EAX);
             asm.add(CommandType.PUSH, RegisterType.ECX);
             if (isLeft)
                 return;
-            putValueOnStack(asm, type);
+            putValueOnStack(part, getType());
         }
     }
 
     private class FieldAccessNode extends Node {
-        public FieldAccessNode(ArrayList<Node> children, Type type) {
-            super(children, new Token(".", new Pair(TokenType.SEPARATOR, SEP_DOT)));
-            this.type = type;
+        public FieldAccessNode(Node record, Node field, SymTable.Symbol symbol) {
+            super(FIELD_NODE, Parser.this.arena.share(FIELD));
+            addChild(record);
+            addChild(field);
+            setType(symbol.type);
+            arena.setValue(id, symbol.fieldOffset);
         }
 
+        private FieldAccessNode(NodeArena arena, int id) { super(arena, id); }
+
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            children.get(0).genAsmCode(asm, true);
-            Type variableType = children.get(0).type;
-            int offset = ((RecordType)variableType).getRecordOffset(children.get(1).token, children.get(1).type);
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
+            int offset = (int)arena.getValue(id);
+            getChild(0).genAsmCode(part, true);
             if (offset != 0)
                 asm.add(CommandType.ADD, DataType.DWORD, RegisterType.ESP, 0, offset);
             if (isLeft)
                 return;
-            putValueOnStack(asm, type);
+            putValueOnStack(part, getType());
         }
     }
 
-    private ArrayList<Node> getTmpLists(int size) {
-        ArrayList<Node> tmp = new ArrayList<>();
-        for (int i = 0; i < size; i++)
-            tmp.add(null);
-        return tmp;
-    }
-
     private class ParamListNode extends Node {
         public ParamListNode(Type type) {
-            super(new ArrayList<>(), new Token("params", new Pair(TokenType.IDENTIFIER, VARIABLE)));
-            this.type = type;
+            super(PARAMS_NODE, Parser.this.arena.share(PARAMS));
+            setType(type);
         }
 
+        private ParamListNode(NodeArena arena, int id) { super(arena, id); }
+
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            for (Node node : children)
-                node.genAsmCode(asm, isLeft);
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            for (Node node : getChildren())
+                node.genAsmCode(part, isLeft);
         }
     }
 
     private class CastNode extends Node {
-        Type oldType = null;
-
         public CastNode(Node to, Type oldType, Type newType, Token token) {
-            super(getList(to), token);
+            super(CAST_NODE, token);
+            addChild(to);
             //to.type = newType;
-            this.oldType = oldType;
-            this.type = newType;
+            setType(newType);
+        }
+
+        // written with the token of the node it converts
+        public CastNode(Node to, Type oldType, Type newType) {
+            super(CAST_NODE, to.getTokenRow());
+            addChild(to);
+            setType(newType);
         }
 
+        private CastNode(NodeArena arena, int id) { super(arena, id); }
+
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            children.get(0).genAsmCode(asm, false);
-            Type baseType = children.get(0).type;
-            Type resultType = type;
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
+            Node base = getChild(0);
+            base.genAsmCode(part, false);
+            Type baseType = base.getType();
+            Type resultType = getType();
             switch (resultType.category) {
                 case CHAR:
                     switch (baseType.category) {
@@ -2004,14 +2671,19 @@ public class Parser {
 
     private class WriteNode extends Node {
 
-        public WriteNode(Token token) { super(new ArrayList<>(), token); }
+        public WriteNode(Token token) { super(WRITE_NODE, token); }
+
+        private WriteNode(NodeArena arena, int id) { super(arena, id); }
 
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
             int size = 4;
             StringBuilder builder = new StringBuilder();
-            for (Node node : children) {
-                Type type = node.type;
+            Node[] arguments = new Node[getChildCount()];
+            for (int i = 0; i < arguments.length; i++) {
+                Node node = arguments[i] = getChild(i);
+                Type type = node.getType();
                 if (type.category == Category.FUNCTION)
                     type = ((FunctionType)type).returnType;
                 switch (type.category) {
@@ -2035,12 +2707,12 @@ public class Parser {
             int al_size = (16 - (size + 4 * asm.getLoopForCount()) % 16) % 16;
             if (al_size > 0)
                 asm.add(CommandAsm.CommandType.SUB, RegisterType.ESP, al_size);
-            for (int i = children.size() - 1; i >= 0; i--) {
-                Node child = children.get(i);
-                Type type = child.type;
+            for (int i = arguments.length - 1; i >= 0; i--) {
+                Node child = arguments[i];
+                Type type = child.getType();
                 if (type.category == Category.FUNCTION)
                     type = ((FunctionType)type).returnType;
-                child.genAsmCode(asm, false);
+                child.genAsmCode(part, false);
                 if (type.category == Category.CHAR) {
                     asm.add(CommandAsm.CommandType.MOVSX, RegisterType.EAX, DataType.BYTE, RegisterType.ESP, 0);
                     asm.add(CommandAsm.CommandType.ADD, RegisterType.ESP, 1);
@@ -2057,29 +2729,33 @@ public class Parser {
 
     private class FunctionCallNode extends Node {
         public FunctionCallNode(Node varNode) {
-            super(getList(varNode), new Token("()", new Pair(TokenType.UNDEFINED, VARIABLE)));
-            this.type = ((FunctionType)varNode.type).returnType; // returned type
+            super(CALL_NODE, Parser.this.arena.share(CALL));
+            addChild(varNode);
+            setType(((FunctionType)varNode.getType()).returnType); // returned type
 //            if (this.type.category == Category.ARRAY)
 //                this.type = ((ArrayType)type).elementType;
         }
 
+        private FunctionCallNode(NodeArena arena, int id) { super(arena, id); }
+
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
-            FunctionType functionType = (FunctionType)children.get(0).type;
-            int i = 0;
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
+            Node function = getChild(0);
+            FunctionType functionType = (FunctionType)function.getType();
             Iterator it = functionType.params.symTable.entrySet().iterator();
-            for (; i < children.get(1).children.size(); i++) { // function parameters
+            for (Node argument : getChild(1).getChildren()) { // function parameters
                 Map.Entry<String, SymTable.Symbol> pair = (Map.Entry)it.next();
                 if (pair.getValue().isConst || pair.getValue().isPointerParam)
-                    children.get(1).children.get(i).genAsmCode(asm, pair.getValue().isPointerParam);
+                    argument.genAsmCode(part, pair.getValue().isPointerParam);
                 else
-                    children.get(1).children.get(i).genAsmCode(asm, false);
+                    argument.genAsmCode(part, false);
             }
             while (it.hasNext()) {
                 Map.Entry<String, SymTable.Symbol> pair = (Map.Entry)it.next();
-                pair.getValue().value.genAsmCode(asm, false);
+                pair.getValue().value.genAsmCode(part, false);
             }
-            asm.add(CommandType.CALL, asm.getFunctionName(children.get(0).token.getText().toLowerCase()));
+            asm.add(CommandType.CALL, asm.getFunctionName(AtomTable.fold(function.getText())));
             switch (functionType.returnType.category) {
                 case CHAR:
                     asm.add(CommandType.SUB, RegisterType.ESP, 1);
@@ -2106,36 +2782,47 @@ public class Parser {
 
     private class ContinueNode extends Node {
         public ContinueNode(Token token) {
-            super(null, token);
+            super(CONTINUE_NODE, token);
         }
 
+        private ContinueNode(NodeArena arena, int id) { super(arena, id); }
+
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
             asm.add(CommandType.JMP, asm.getLoopStarts().peek());
         }
     }
 
     private class BreakNode extends Node {
         public BreakNode(Token token) {
-            super(null, token);
+            super(BREAK_NODE, token);
         }
 
+        private BreakNode(NodeArena arena, int id) { super(arena, id); }
+
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
             asm.add(CommandType.JMP, asm.getLoopEnds().peek());
         }
     }
 
     private class ExitNode extends Node {
+        // the value is the index of the vars of the function it leaves, result lives there
         public ExitNode(Token token) {
-            super(new ArrayList<>(), token);
+            super(EXIT_NODE, token);
+            arena.setValue(id, arena.intern(tables.peek()));
         }
 
+        private ExitNode(NodeArena arena, int id) { super(arena, id); }
+
         @Override
-        public void genAsmCode(CodeAsm asm, boolean isLeft) {
+        public void genAsmCode(PartAsm part, boolean isLeft) {
+            CodeAsm asm = part.asm;
             Type resultFunctionType = asm.getCurrFunctionResultType();
-            if (children.size() > 0) {
-                children.get(0).genAsmCode(asm, !resultFunctionType.isScalar());
+            if (getChildCount() > 0) {
+                getChild(0).genAsmCode(part, !resultFunctionType.isScalar());
                 switch (resultFunctionType.category) {
                     case CHAR:
                         asm.add(CommandType.MOV, RegisterType.AL, DataType.BYTE, RegisterType.ESP, 0);
@@ -2155,7 +2842,7 @@ public class Parser {
                         asm.add(CommandType.MOV, RegisterType.EBX, "__temp@var");
                         asm.add(CommandType.POP, RegisterType.EAX);
                         asm.add(CommandType.MOV, RegisterType.ECX, resultFunctionType.getSize() / 4);
-                        String label = asm.getLabelName("COPYSTRUCT");
+                        String label = part.getLabelName("COPYSTRUCT");
                         asm.add(CommandType.LABEL, label);
                         asm.add(CommandType.MOV, RegisterType.EDX, DataType.DWORD, RegisterType.EAX, 0);
                         asm.add(CommandType.MOV, DataType.DWORD, RegisterType.EBX, 0, RegisterType.EDX);
@@ -2165,25 +2852,27 @@ public class Parser {
                         break;
                 }
             } else {
-                javafx.util.Pair<Integer, Integer> offset = asm.getOffset("result");
+                SymTable vars = (SymTable)arena.getObject((int)arena.getValue(id));
+                SymTable.Symbol result = vars.symbols.get(resultAtom);
+                Frame frame = part.getFrame(result);
                 switch (resultFunctionType.category) {
                     case CHAR:
-                        asm.add(CommandType.MOV, RegisterType.AL, DataType.BYTE, RegisterType.EBP, -offset.getValue());
+                        asm.add(CommandType.MOV, RegisterType.AL, DataType.BYTE, RegisterType.EBP, -frame.offset);
                         break;
                     case INT:
-                        asm.add(CommandType.MOV, RegisterType.EAX, DataType.DWORD, RegisterType.EBP, -offset.getValue());
+                        asm.add(CommandType.MOV, RegisterType.EAX, DataType.DWORD, RegisterType.EBP, -frame.offset);
                         break;
                     case DOUBLE:
-                        asm.add(CommandType.MOVSD, RegisterType.XMM0, DataType.QWORD, RegisterType.EBP, -offset.getValue());
+                        asm.add(CommandType.MOVSD, RegisterType.XMM0, DataType.QWORD, RegisterType.EBP, -frame.offset);
                         break;
                     case NIL:
                         break;
                     case ARRAY:
                     case RECORD:
                         asm.add(CommandType.MOV, RegisterType.EBX, "__temp@var");
-                        asm.add(CommandType.LEA, RegisterType.EAX, RegisterType.EBP, -offset.getValue());
+                        asm.add(CommandType.LEA, RegisterType.EAX, RegisterType.EBP, -frame.offset);
                         asm.add(CommandType.MOV, RegisterType.ECX, resultFunctionType.getSize() / 4);
-                        String label = asm.getLabelName("COPYSTRUCT");
+                        String label = part.getLabelName("COPYSTRUCT");
                         asm.add(CommandType.LABEL, label);
                         asm.add(CommandType.MOV, RegisterType.EDX, DataType.DWORD, RegisterType.EAX, 0);
                         asm.add(CommandType.MOV, DataType.DWORD, RegisterType.EBX, 0, RegisterType.EDX);
@@ -2199,6 +2888,8 @@ public class Parser {
     }
 
     private class ReadNode extends Node {
-        public ReadNode(Token token) { super(new ArrayList<>(), token); }
+        public ReadNode(Token token) { super(READ_NODE, token); }
+
+        private ReadNode(NodeArena arena, int id) { super(arena, id); }
     }
 }
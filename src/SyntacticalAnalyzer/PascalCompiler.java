@@ -0,0 +1,102 @@
+package SyntacticalAnalyzer;
+
+import Generator.CodeAsm;
+import Tokens.Token;
+import Tokens.TokenBuffer;
+import Tokens.Tokenizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+
+// Compiles sources held in memory. Every compilation has a tokenizer, a parser and an asm of its own
+// and nothing is printed, so compilations run on any number of threads at a time. Errors come back
+// as diagnostics of the compilation
+public class PascalCompiler {
+
+    public static Compilation compile(CharSequence source) { return compile(source, null); }
+
+    public static Compilation compile(ByteBuffer source) { return compile(source, null); }
+
+    public static Compilation compile(InputStream source) throws IOException { return compile(source, null); }
+
+    // Functions declared at the top level go to the sink as soon as they are parsed, see
+    // Parser.parse(CodeSink), and the code of main follows into the asm the sink has started. The code
+    // of a program with errors is left unfinished
+    public static Compilation compile(CharSequence source, CodeSink sink) {
+        return compile(new Tokenizer(source.toString().toCharArray()), sink);
+    }
+
+    public static Compilation compile(ByteBuffer source, CodeSink sink) {
+        return compile(new Tokenizer(source), sink);
+    }
+
+    public static Compilation compile(InputStream source, CodeSink sink) throws IOException {
+        return compile(new Tokenizer(source), sink);
+    }
+
+    private static Compilation compile(Tokenizer tokenizer, CodeSink sink) {
+        Parser parser = new Parser(new TokenBuffer(tokenizer));
+        MainSink mainSink = sink != null ? new MainSink(sink) : null;
+        Parser.Type program = null;
+        SyntaxException syntaxError = null;
+        RuntimeException internalError = null;
+        try {
+            program = mainSink != null ? parser.parse(mainSink) : parser.parse();
+        } catch (SyntaxException e) {
+            syntaxError = e;
+        } catch (CancellationException e) { // no one waits for the outcome
+            throw e;
+        } catch (RuntimeException e) { // a bug of the compiler, it fails this compilation alone
+            internalError = e;
+        }
+        ArrayList<Diagnostic> diagnostics = new ArrayList<>();
+        if (parser.getLexicalError() != null) {
+            Token end = parser.getLexicalErrorToken();
+            diagnostics.add(new Diagnostic(Diagnostic.Kind.LEXICAL, parser.getLexicalError(),
+                    end.hasPosition() ? end.getLine() : -1, end.hasPosition() ? end.getColumn() : -1));
+        }
+        if (syntaxError != null)
+            diagnostics.add(new Diagnostic(Diagnostic.Kind.SYNTAX, syntaxError.getMessage(),
+                    syntaxError.getLineNumber(), syntaxError.getColumnNumber()));
+        if (internalError != null)
+            diagnostics.add(internal(internalError));
+        if (mainSink != null && diagnostics.isEmpty()) {
+            Parser.FunctionType main = (Parser.FunctionType)program;
+            try {
+                main.vars.genCode(mainSink.main, mainSink);
+                main.genMain(mainSink.main);
+            } catch (RuntimeException e) {
+                diagnostics.add(internal(e));
+            }
+        }
+        return new Compilation(program, diagnostics);
+    }
+
+    private static Diagnostic internal(RuntimeException e) {
+        return new Diagnostic(Diagnostic.Kind.INTERNAL, "Internal error: " + e, -1, -1);
+    }
+
+    // keeps the asm the sink starts, the code of main goes there after the functions
+    private static class MainSink implements CodeSink {
+        private final CodeSink sink;
+        private CodeAsm main;
+
+        MainSink(CodeSink sink) { this.sink = sink; }
+
+        @Override
+        public CodeAsm start(Parser.SymTable globals) { return main = sink.start(globals); }
+
+        @Override
+        public void add(CodeAsm function) { sink.add(function); }
+
+        @Override
+        public CodeAsm fork(CodeAsm asm) { return sink.fork(asm); }
+
+        @Override
+        public void append(CodeAsm asm, CodeAsm part) { sink.append(asm, part); }
+    }
+
+}
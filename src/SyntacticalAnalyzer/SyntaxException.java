@@ -1,9 +1,16 @@
 package SyntacticalAnalyzer;
 
+import Tokens.Token;
+
 import javax.script.ScriptException;
 
 public class SyntaxException extends ScriptException {
 
     public SyntaxException(String message) { super(message); }
 
+    // the line and column of the token, -1 for a token made up by the parser. The message is kept as it is
+    public SyntaxException(String message, Token token) {
+        super(message, null, token.hasPosition() ? token.getLine() : -1, token.hasPosition() ? token.getColumn() : -1);
+    }
+
 }
@@ -0,0 +1,175 @@
+package SyntacticalAnalyzer;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+// Tree in the layout of the -t dump. Lines of nodes are drawn from one prefix which grows and shrinks
+// with the depth, so the dump takes time linear in its size
+public class TextTreeWriter extends TreeWriter {
+    private static final String lineSeparator = System.lineSeparator(); // after a node
+    private static final int INDENT = 4;
+    private static final char[] SPACES = new char[64];
+
+    private int indent = 0; // of the tables of the current function
+    private String symbol; // waits for its type, a function one is written without it
+    private boolean isType, isConst;
+    private boolean symbolLine = false; // a line of a symbol is not ended yet
+    private char[] prefix = new char[256];
+    private int prefixLength = 0;
+    private int[] prefixLengths = new int[64]; // of the nodes entered
+    private int depth = 0;
+
+    static {
+        Arrays.fill(SPACES, ' ');
+    }
+
+    public TextTreeWriter(Writer out) { super(out); }
+
+    public TextTreeWriter(OutputStream out) { super(out); }
+
+    private void space(int count) {
+        for (; count > 0; count -= SPACES.length)
+            write(SPACES, 0, Math.min(count, SPACES.length));
+    }
+
+    private void writeSymbol() {
+        if (symbol == null)
+            return;
+        space(indent);
+        write(symbol);
+        write(" : ");
+        if (isType)
+            write("type ");
+        if (isConst)
+            write("const ");
+        symbol = null;
+    }
+
+    private void endSymbolLine() {
+        if (symbolLine)
+            write('\n');
+        symbolLine = false;
+    }
+
+    private void extendPrefix(String text, int spaces) {
+        if (prefixLength + text.length() + spaces > prefix.length)
+            prefix = Arrays.copyOf(prefix, Math.max(prefix.length * 2, prefixLength + text.length() + spaces));
+        text.getChars(0, text.length(), prefix, prefixLength);
+        prefixLength += text.length();
+        Arrays.fill(prefix, prefixLength, prefixLength + spaces, ' ');
+        prefixLength += spaces;
+    }
+
+    @Override
+    public void enterFunction(String name, String result) {
+        symbol = null;
+        symbolLine = false;
+        space(indent);
+        write("FUNCTION : ");
+        write(name);
+        write('\n');
+        indent += INDENT;
+        space(indent);
+        write("result : ");
+        write(result);
+        write('\n');
+    }
+
+    @Override
+    public void leaveFunction() {
+        indent -= INDENT;
+        symbolLine = true; // of the symbol the function is the type of
+    }
+
+    @Override
+    public void enterTable(boolean isParams) {
+        space(indent);
+        write(isParams ? "function params {\n" : "function vars {\n");
+    }
+
+    @Override
+    public void leaveTable(boolean isParams) {
+        space(indent);
+        write(isParams ? "}\n" : "}");
+    }
+
+    @Override
+    public void enterSymbol(String name, boolean isType, boolean isConst) {
+        symbol = name;
+        this.isType = isType;
+        this.isConst = isConst;
+        symbolLine = true;
+    }
+
+    @Override
+    public void leaveSymbol() { endSymbolLine(); }
+
+    @Override
+    public void visitType(String category) {
+        writeSymbol();
+        write(category);
+    }
+
+    @Override
+    public void enterArray(String min, String max) {
+        writeSymbol();
+        write("array [");
+        write(min);
+        write(", ");
+        write(max);
+        write("] of ");
+    }
+
+    @Override
+    public void leaveArray() {}
+
+    @Override
+    public void enterRecord() {
+        writeSymbol();
+        write("RECORD\n");
+    }
+
+    @Override
+    public void enterField(String name) {
+        space(indent * 2);
+        write(name);
+        write(" : ");
+    }
+
+    @Override
+    public void leaveField() { write('\n'); }
+
+    @Override
+    public void leaveRecord() {
+        space(indent);
+        write("END");
+    }
+
+    @Override
+    public void enterTree() {
+        endSymbolLine();
+        write('\n');
+        prefixLength = 0;
+        extendPrefix("", indent);
+        depth = 0;
+    }
+
+    @Override
+    public void leaveTree() {}
+
+    @Override
+    public void enterNode(String text, boolean isLast) {
+        write(prefix, 0, prefixLength);
+        write(isLast ? "└── " : "├── ");
+        write(text);
+        write(lineSeparator);
+        if (depth == prefixLengths.length)
+            prefixLengths = Arrays.copyOf(prefixLengths, depth * 2);
+        prefixLengths[depth++] = prefixLength;
+        extendPrefix(isLast ? "    " : "|   ", Math.max(text.length() - 1, 0));
+    }
+
+    @Override
+    public void leaveNode() { prefixLength = prefixLengths[--depth]; }
+}
@@ -0,0 +1,40 @@
+package SyntacticalAnalyzer;
+
+// Walk of a parsed program: a function with its tables of params and vars, the symbols in them with
+// their types and values, and the trees of statements. A tree is walked from its root, every node is
+// entered with whether it is the last child of its parent and left after its children
+public interface TreeVisitor {
+    void enterFunction(String name, String result);
+
+    void leaveFunction();
+
+    void enterTable(boolean isParams);
+
+    void leaveTable(boolean isParams);
+
+    void enterSymbol(String name, boolean isType, boolean isConst);
+
+    void leaveSymbol();
+
+    void visitType(String category);
+
+    void enterArray(String min, String max);
+
+    void leaveArray();
+
+    void enterRecord();
+
+    void enterField(String name);
+
+    void leaveField();
+
+    void leaveRecord();
+
+    void enterTree();
+
+    void leaveTree();
+
+    void enterNode(String text, boolean isLast);
+
+    void leaveNode();
+}
@@ -0,0 +1,60 @@
+package SyntacticalAnalyzer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+// Visitor writing a tree straight into a writer as it is walked
+public abstract class TreeWriter implements TreeVisitor {
+    private static final int CAPACITY = 1 << 16;
+
+    private final Writer out;
+
+    protected TreeWriter(Writer out) { this.out = out; }
+
+    protected TreeWriter(OutputStream out) {
+        this(new BufferedWriter(new OutputStreamWriter(out), CAPACITY));
+    }
+
+    // a whole program followed by a line break
+    public void write(Parser.Type program) {
+        program.accept(this);
+        write(System.lineSeparator());
+        flush();
+    }
+
+    protected void write(String text) {
+        try {
+            out.write(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected void write(char c) {
+        try {
+            out.write(c);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected void write(char[] chars, int offset, int count) {
+        try {
+            out.write(chars, offset, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
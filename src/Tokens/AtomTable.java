@@ -0,0 +1,114 @@
+package Tokens;
+
+import java.util.Arrays;
+
+// Case-folded identifiers of one compilation, numbered in order of first appearance.
+// A shared table is locked since a pipelined scanner interns while the parser reads
+public class AtomTable {
+    private boolean shared = false;
+    private String[] names = new String[64];
+    private String[] spellings = new String[64];
+    private int[] hashes = new int[64];
+    private int size = 0;
+    private int[] slots = new int[128]; // atom + 1, 0 is a free slot
+
+    private static char fold(char c) {
+        if (c >= 'A' && c <= 'Z')
+            return (char)(c + ('a' - 'A'));
+        return c < 128 ? c : Character.toLowerCase(c);
+    }
+
+    private static int hash(CharSequence text) {
+        int hash = 0;
+        for (int i = 0; i < text.length(); i++)
+            hash = hash * 31 + fold(text.charAt(i));
+        return hash ^ (hash >>> 16);
+    }
+
+    // folded the way names are, whatever the locale
+    public static String fold(String text) {
+        char[] chars = new char[text.length()];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = fold(text.charAt(i));
+        return new String(chars);
+    }
+
+    private static boolean equalsFolded(String name, CharSequence text) {
+        if (name.length() != text.length())
+            return false;
+        for (int i = 0; i < name.length(); i++)
+            if (name.charAt(i) != fold(text.charAt(i)))
+                return false;
+        return true;
+    }
+
+    // set before the scanner thread starts, which publishes it
+    void share() { shared = true; }
+
+    public int intern(CharSequence text) {
+        if (!shared)
+            return add(text);
+        synchronized (this) {
+            return add(text);
+        }
+    }
+
+    private int add(CharSequence text) {
+        int hash = hash(text);
+        int mask = slots.length - 1;
+        int i = hash & mask;
+        for (; slots[i] != 0; i = (i + 1) & mask) {
+            int atom = slots[i] - 1;
+            if (hashes[atom] == hash && equalsFolded(names[atom], text))
+                return atom;
+        }
+        if (size == names.length) {
+            names     = Arrays.copyOf(names, size * 2);
+            spellings = Arrays.copyOf(spellings, size * 2);
+            hashes    = Arrays.copyOf(hashes, size * 2);
+        }
+        String spelling = text.toString();
+        names[size] = fold(spelling);
+        spellings[size] = spelling;
+        hashes[size] = hash;
+        slots[i] = size + 1;
+        if (++size * 2 > slots.length)
+            rehash();
+        return size - 1;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int atom = 0; atom < size; atom++) {
+            int i = hashes[atom] & mask;
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+            slots[i] = atom + 1;
+        }
+    }
+
+    public int size() { return size; }
+
+    public String getName(int atom) {
+        if (!shared)
+            return names[atom];
+        synchronized (this) {
+            return names[atom];
+        }
+    }
+
+    public String getSpelling(int atom) {
+        if (!shared)
+            return spellings[atom];
+        synchronized (this) {
+            return spellings[atom];
+        }
+    }
+
+    // spelling met first when the text is written the same way
+    public String getText(int atom, CharSequence text) {
+        String spelling = getSpelling(atom);
+        return spelling.contentEquals(text) ? spelling : text.toString();
+    }
+}
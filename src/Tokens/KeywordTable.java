@@ -0,0 +1,64 @@
+package Tokens;
+
+import java.util.Arrays;
+import java.util.Map;
+
+// Perfect hash over the reserved words, case-insensitive lookup without building a String
+class KeywordTable {
+    private static final int SIZE = 256;
+
+    private final String[] words = new String[SIZE];
+    private final Pair[] pairs = new Pair[SIZE];
+    private int maxLength = 0;
+    private int seed;
+
+    KeywordTable(Map<String, Pair> keywords) {
+        for (String word : keywords.keySet())
+            maxLength = Math.max(maxLength, word.length());
+        // look for a multiplier without collisions, there is plenty of them for a table this sparse
+        for (seed = 1; !fill(keywords); seed += 2);
+    }
+
+    private boolean fill(Map<String, Pair> keywords) {
+        Arrays.fill(words, null);
+        for (Map.Entry<String, Pair> entry : keywords.entrySet()) {
+            int slot = slot(entry.getKey(), entry.getKey().length());
+            if (words[slot] != null)
+                return false;
+            words[slot] = entry.getKey();
+            pairs[slot] = entry.getValue();
+        }
+        return true;
+    }
+
+    private static char fold(char c) { return c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c; }
+
+    private int slot(CharSequence text, int length) {
+        int hash = length;
+        for (int i = 0; i < length; i++)
+            hash = hash * 31 + fold(text.charAt(i));
+        return (hash * seed) >>> 24;
+    }
+
+    // slot of the keyword spelled by text or -1 for an identifier
+    public int find(CharSequence text) {
+        int length = text.length();
+        if (length > maxLength)
+            return -1;
+        int slot = slot(text, length);
+        String word = words[slot];
+        if (word == null || word.length() != length)
+            return -1;
+        for (int i = 0; i < length; i++)
+            if (fold(text.charAt(i)) != word.charAt(i))
+                return -1;
+        return slot;
+    }
+
+    public Pair getPair(int slot) { return pairs[slot]; }
+
+    // shared lower case spelling when the text is written that way
+    public String getText(int slot, CharSequence text) {
+        return words[slot].contentEquals(text) ? words[slot] : text.toString();
+    }
+}
@@ -0,0 +1,151 @@
+package Tokens;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// A source cut into chunks of whole lines which are scanned side by side. Every chunk but the first
+// is scanned on the guess that it starts outside of a comment or a string. The chunks are joined in
+// order: the scan reaching a chunk goes on until one of its tokens equals the token of the chunk at
+// the same offset, from there on the chunk is right and is taken as it is. A wrong guess costs a
+// serial scan of the lines before that token
+class ParallelScan {
+    private static final int MIN_CHUNK = 1 << 16;
+
+    private static class Chunk {
+        final int start, end;
+        final boolean speculative;
+        final TokenStream stream;
+        final Tokenizer tokenizer;
+        int lineBreaks; // in [start, end)
+        int lineShift;  // lines of the chunk are counted from 1 at its start
+        int[] links = new int[0];
+        String error;
+        boolean finished;
+        boolean abandoned;
+
+        Chunk(char[] source, int start, int end) {
+            this.start = start;
+            this.end = end;
+            speculative = start > 0;
+            stream = new TokenStream(source, new AtomTable());
+            tokenizer = new Tokenizer(source, start, 1, stream.getAtoms(), stream);
+        }
+
+        // scan up to the next token, comments are passed by
+        void step() {
+            int size = stream.size();
+            try {
+                while (stream.size() == size && !finished)
+                    finished = !tokenizer.advance();
+            } catch (LexicalException e) {
+                error = e.getMessage();
+                finished = true;
+            }
+        }
+
+        // scan the chunk up to the first token after it
+        void scan() {
+            while (!finished && (stream.size() == 0 || stream.getOffset(stream.size() - 1) < end)) {
+                step();
+                // a token takes a char at least, a guess that has got more is stuck in a loop
+                if (speculative && stream.size() > end - start + 2)
+                    abandoned = finished = true;
+            }
+            char[] source = stream.getSource();
+            for (int i = start; i < end; i++)
+                if (source[i] == '\n' || source[i] == '\r' && (i + 1 == end || source[i + 1] != '\n'))
+                    lineBreaks++;
+        }
+
+        void appendTo(TokenStream result, int from, int to) {
+            int atoms = stream.getAtoms().size();
+            if (links.length < atoms) {
+                int known = links.length;
+                links = Arrays.copyOf(links, atoms);
+                Arrays.fill(links, known, atoms, -1);
+            }
+            result.append(stream, from, to, lineShift, links);
+        }
+    }
+
+    private final char[] source;
+    private final AtomTable atoms;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    ParallelScan(char[] source, AtomTable atoms, ForkJoinPool pool) {
+        this(source, atoms, pool, Math.max(MIN_CHUNK, source.length / (pool.getParallelism() * 4)));
+    }
+
+    ParallelScan(char[] source, AtomTable atoms, ForkJoinPool pool, int chunkSize) {
+        this.source = source;
+        this.atoms = atoms;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    private ArrayList<Chunk> split() {
+        ArrayList<Chunk> chunks = new ArrayList<>();
+        for (int start = 0; start < source.length; ) {
+            int end = Math.min(source.length, start + chunkSize);
+            while (end < source.length && source[end - 1] != '\n' && source[end - 1] != '\r')
+                end++;
+            if (end < source.length && source[end - 1] == '\r' && source[end] == '\n')
+                end++;
+            chunks.add(new Chunk(source, start, end));
+            start = end;
+        }
+        if (chunks.isEmpty())
+            chunks.add(new Chunk(source, 0, 0));
+        return chunks;
+    }
+
+    TokenStream scan() {
+        ArrayList<Chunk> chunks = split();
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Chunk chunk : chunks)
+            tasks.add(pool.submit(chunk::scan));
+        int capacity = 0, lines = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            tasks.get(i).join();
+            chunks.get(i).lineShift = lines;
+            lines += chunks.get(i).lineBreaks;
+            capacity += chunks.get(i).stream.size();
+        }
+
+        TokenStream result = new TokenStream(source, atoms, Math.max(capacity, 1));
+        Chunk live = chunks.get(0); // the scan known to be right
+        int next = 0; // first token of it not taken yet
+        for (int i = 1; i < chunks.size() && !live.finished; i++) {
+            Chunk chunk = chunks.get(i);
+            while (!live.finished) {
+                int last = live.stream.size() - 1;
+                int offset = live.stream.getOffset(last);
+                if (offset >= chunk.start) {
+                    int match = chunk.abandoned ? -1
+                            : chunk.stream.match(live.stream, last, chunk.lineShift - live.lineShift);
+                    if (match >= 0) {
+                        live.appendTo(result, next, last);
+                        live = chunk;
+                        next = match;
+                        break;
+                    }
+                    if (offset >= chunk.end)
+                        break; // the guess for the chunk was wrong all the way, try the next one
+                }
+                live.step();
+            }
+        }
+        while (!live.finished)
+            live.step();
+        live.appendTo(result, next, live.stream.size());
+        if (live.error != null) {
+            result.setError(live.error);
+            live.tokenizer.passEndOfFile();
+            live.appendTo(result, live.stream.size() - 1, live.stream.size());
+        }
+        return result;
+    }
+}
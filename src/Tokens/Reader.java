@@ -1,71 +1,229 @@
 package Tokens;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 public class Reader {
 
     public int xPos = 0;
     public int yPos = 0;
 
-    private BufferedReader reader;
-    private String currentString = "";
+    // whole source, current line is buffer[lineStart .. lineStart + lineLength)
+    private char[] buffer = new char[0];
+    private int length = 0;
+    private int lineStart = 0;
+    private int lineLength = 0;
+    private int nextLineStart = 0;
+    // the line the last getChar left, so a rollback steps back over the line break it crossed
+    private boolean crossed = false;
+    private int lastLineStart, lastLineLength, lastYPos;
+    // the same source as bytes in little endian order when it is pure ASCII, for scanning by words
+    private ByteBuffer ascii;
+    private static final long ONES = 0x0101010101010101L, HIGHS = 0x8080808080808080L;
 
 
     public Reader(String fileName) {
-        try {
-            reader = new BufferedReader(new FileReader(fileName));
-        } catch (FileNotFoundException e) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private boolean nextLine() {
-        try {
-            if (reader.ready()) {
-                currentString = reader.readLine();
-                xPos++;
-                return true;
-            } else {
-                // ....
-                currentString = "";
-                return false;
+    // the chars are not copied, they are the source from now on and must not change
+    public Reader(char[] source) {
+        buffer = source;
+        length = source.length;
+    }
+
+    // the bytes from the position of the source to its limit, they are copied so the source may change
+    public Reader(ByteBuffer source) {
+        ByteBuffer bytes = ByteBuffer.allocate(source.remaining());
+        bytes.put(source.duplicate());
+        bytes.flip();
+        decode(bytes);
+    }
+
+    // the rest of the stream, which is left open
+    public Reader(InputStream source) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] block = new byte[1 << 16];
+        for (int count; (count = source.read(block)) != -1; )
+            bytes.write(block, 0, count);
+        decode(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    // source already in memory, reading starts at offset which lies on the given line
+    Reader(char[] source, int offset, int line) {
+        buffer = source;
+        length = source.length;
+        int start = offset;
+        while (start > 0 && source[start - 1] != '\n' && source[start - 1] != '\r')
+            start--;
+        nextLineStart = start;
+        xPos = line - 1;
+        nextLine();
+        yPos = offset - start;
+    }
+
+    private void decode(ByteBuffer bytes) {
+        int size = bytes.remaining();
+        char[] chars = new char[size];
+        ascii = bytes.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < size; i++) {
+            byte b = bytes.get(i);
+            if (b < 0) {
+                // not an ASCII source, let the charset decode it
+                CharBuffer decoded = Charset.defaultCharset().decode(bytes);
+                chars = new char[decoded.remaining()];
+                decoded.get(chars);
+                size = chars.length;
+                ascii = null;
+                break;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            chars[i] = (char)b;
+        }
+        buffer = chars;
+        length = size;
+    }
+
+    private boolean nextLine() {
+        if (nextLineStart >= length) {
+            lineLength = 0;
+            return false;
         }
+        int i = nextLineStart;
+        while (i < length && buffer[i] != '\n' && buffer[i] != '\r')
+            i++;
+        lineStart = nextLineStart;
+        lineLength = i - lineStart;
+        // "\n", "\r" and "\r\n" end a line
+        if (i < length && buffer[i++] == '\r' && i < length && buffer[i] == '\n')
+            i++;
+        nextLineStart = i;
+        xPos++;
         return true;
     }
 
     public char getChar() {
-        if (currentString.length() - Math.abs(yPos) <= 0) {
+        crossed = false;
+        if (endOfLine()) {
+            int start = lineStart, length = lineLength, y = yPos;
             if (!nextLine())
                 return '\0';
+            crossed = true;
+            lastLineStart = start;
+            lastLineLength = length;
+            lastYPos = y;
             yPos = 0;
         }
-        //char c = !currentString.equals("") ? currentString.charAt(yPos++) : '\n';
-        //if (c == ' ')
-        return !currentString.equals("") ? currentString.charAt(yPos++) : '\n';
+        return lineLength != 0 ? buffer[lineStart + yPos++] : '\n';
     }
 
     public boolean lookAhead() {
-        return currentString.length() - yPos != 0;
+        return lineLength != yPos;
     }
 
+    // undo the last getChar, back on the line it was called on if it crossed a line break
     public void singleCharacterRollback() {
-        yPos--;
+        if (crossed) {
+            nextLineStart = lineStart;
+            lineStart = lastLineStart;
+            lineLength = lastLineLength;
+            yPos = lastYPos;
+            xPos--;
+            crossed = false;
+        }
+        else
+            yPos--;
     }
 
-    public boolean endOfLine() { return currentString.length() - Math.abs(yPos) <= 0; }
+    // yPos is negative only after a rollback over an empty line
+    public boolean endOfLine() { return yPos >= lineLength || yPos < 0; }
 
-    public void markCommentLineDoubleSlash() {
-        yPos = currentString.length();
+    // First position from i on which holds the terminator or a control char. The bytes of an ASCII
+    // source are tested eight at a time: a lane becomes zero where the byte equals the terminator,
+    // and the borrow trick marks zero lanes and lanes below 14. Only lanes above a real hit can be
+    // marked falsely, so the lowest mark is exact
+    private int skipPlain(int i, char terminator) {
+        long pattern = ONES * terminator;
+        while (i + 8 <= length) {
+            long word = ascii.getLong(i);
+            long match = word ^ pattern;
+            long marks = ((match - ONES) & ~match | (word - ONES * 14) & ~word) & HIGHS;
+            if (marks != 0)
+                return i + (Long.numberOfTrailingZeros(marks) >>> 3);
+            i += 8;
+        }
+        return i;
+    }
+
+    // Move past the next terminator as a run of getChar calls would, line breaks on the way are
+    // counted in the same pass. Nothing moves when the source ends first
+    public boolean skipTo(char terminator) {
+        crossed = false;
+        int i, start, lines;
+        if (endOfLine()) {
+            i = start = nextLineStart;
+            lines = 1;
+        }
+        else {
+            i = lineStart + yPos;
+            start = lineStart;
+            lines = 0;
+        }
+        for (; i < length; i++) {
+            if (ascii != null && (i = skipPlain(i, terminator)) == length)
+                break;
+            char c = buffer[i];
+            if (c > '\r') { // terminators are printable
+                if (c == terminator)
+                    break;
+            }
+            else if (c == '\n' || c == '\r') {
+                if (c == '\r' && i + 1 < length && buffer[i + 1] == '\n')
+                    i++;
+                start = i + 1;
+                lines++;
+            }
+        }
+        if (i == length)
+            return false;
+        if (lines > 0) {
+            xPos += lines - 1;
+            nextLineStart = start;
+            nextLine();
+        }
+        yPos = i - lineStart + 1;
+        return true;
+    }
+
+    // Append the rest of the current line up to the terminator, which is left to getChar
+    public void readUntil(char terminator, StringBuilder builder) {
+        if (endOfLine())
+            return;
+        int from = lineStart + yPos, end = lineStart + lineLength;
+        int i = ascii != null ? Math.min(skipPlain(from, terminator), end) : from;
+        while (i < end && buffer[i] != terminator)
+            i++;
+        builder.append(buffer, from, i - from);
+        yPos = i - lineStart;
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        reader.close();
+    public void markCommentLineDoubleSlash() {
+        yPos = lineLength;
     }
+
+    // position in the source of the last char returned by getChar
+    public int getOffset() { return lineStart + yPos - 1; }
+
+    public char[] getBuffer() { return buffer; }
 }
@@ -2,29 +2,46 @@ package Tokens;
 
 public class Token {
     private Pair pair = null;
-    private String posX = null;
-    private String posY = null;
+    private static final int NOWHERE = Integer.MIN_VALUE; // position of a token made up by the parser
+    private int posX = NOWHERE;
+    private int posY = NOWHERE;
     private String text = null;
     private String value = null;
+    private int atom = -1; // identifier number in the AtomTable of the compilation
+    private long intValue = 0;
+    private double doubleValue = 0;
 
     public Token(Pair type, int posX, int posY, String text) {
         this.pair = type;
-        this.posX = String.valueOf(posX);
-        this.posY = String.valueOf(posY);
+        this.posX = posX;
+        this.posY = posY;
         this.text = text;
     }
 
     public Token(Pair type, int posX, int posY, String text, String value) {
-        this.pair = type;
-        this.posX = String.valueOf(posX);
-        this.posY = String.valueOf(posY);
-        this.text = text;
+        this(type, posX, posY, text);
         this.value = value;
     }
 
+    // a token kept by the parser, without its value
+    public Token(Pair type, int posX, int posY, String text, int atom) {
+        this(type, posX, posY, text);
+        this.atom = atom;
+    }
+
+    Token(Pair type, int posX, int posY, String text, long intValue, double doubleValue) {
+        this(type, posX, posY, text);
+        this.intValue = intValue;
+        this.doubleValue = doubleValue;
+    }
+
     public Token(Object result, Pair type) {
         this.text = result.toString();
         this.pair = type;
+        if (result instanceof Number) {
+            intValue = ((Number)result).longValue();
+            doubleValue = ((Number)result).doubleValue();
+        }
     }
 
     public Token(String text, Pair type) {
@@ -32,10 +49,35 @@ public class Token {
         this.pair = type;
     }
 
+    void setAtom(int atom) { this.atom = atom; }
+
+    public int getAtom() { return atom; }
+
+    // text of the value, scanned numbers get it from their primitive value on request
+    // (tokens made up by the parser have no position and keep no value text)
+    private String valueText() {
+        if (value == null && pair != null && hasPosition()) {
+            switch (pair.getTokenValue()) {
+                case CONST_INTEGER:
+                case CONST_HEX:
+                    value = String.valueOf(intValue);
+                    break;
+                case CONST_DOUBLE:
+                    value = String.valueOf(doubleValue);
+                    break;
+            }
+        }
+        return value;
+    }
+
     public String getValue() {
-        return value == null ? "" : value;
+        return valueText() == null ? "" : valueText();
     }
 
+    public long getIntValue() { return intValue; }
+
+    public double getDoubleValue() { return doubleValue; }
+
     public String getText() {return text == null ? "" : text; }
 
     public TokenValue getTokenValue() { return pair.getTokenValue(); }
@@ -44,9 +86,17 @@ public class Token {
 
     public String getType() {return pair.getTokenType().toString(); }
 
-    public String getPosX() { return posX; }
+    public boolean hasPosition() { return posX != NOWHERE; }
+
+    public String getPosX() { return hasPosition() ? String.valueOf(posX) : null; }
+
+    public String getPosY() { return hasPosition() ? String.valueOf(posY) : null; }
+
+    public int getLine() { return posX; }
+
+    public int getColumn() { return posY; }
 
-    public String getPosY() { return posY; }
+    public Pair getPair() { return pair; }
 
     public String genSpace(int count) {
         StringBuilder builder = new StringBuilder();
@@ -60,12 +110,13 @@ public class Token {
     public String toString() {
         String tokenType = pair.getTokenType().toString();
         String tokenValue = pair.getTokenValue().toString();
+        String posX = getPosX(), posY = getPosY();
         String lexem = posX + genSpace(3 - posX.length()) + "|"
                 + genSpace(3 - posY.length()) + posY + " | "
                 + tokenType + genSpace(11 - tokenType.length()) + " | "
                 + tokenValue + genSpace(28 - tokenValue.length()) + "| "
                 + text + genSpace(10 - text.length()) + "| ";
-        lexem += value == null ? "" : value;
+        lexem += valueText() == null ? "" : valueText();
         return lexem;
     }
 
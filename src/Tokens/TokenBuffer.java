@@ -0,0 +1,137 @@
+package Tokens;
+
+import java.util.Arrays;
+
+// Tokens ahead of the parser from a tokenizer, a stream or a ring. peek(0) is the current token and
+// peek(n) the n-th one after it, the end of file repeats once reached. A mark keeps the tokens from
+// the current one on until reset goes back to it or release drops it
+public class TokenBuffer {
+    private Tokenizer tokenizer;
+    private TokenRing ring;
+    private TokenStream stream; // walked by index, nothing is buffered
+    private int lastIndex = -1; // of the stream token built last
+    private Token lastToken;
+    private Token[] tokens = new Token[16]; // token i lies at i & (tokens.length - 1)
+    private int position = -1; // current token, there is none before the first next
+    private int read = 0; // tokens taken from the source so far
+    private int[] marks = new int[8];
+    private int markCount = 0;
+    private Token endOfFile; // once reached
+    private String error; // lexical error which ended the tokens of the tokenizer or the ring
+
+    public TokenBuffer(Tokenizer tokenizer) { this.tokenizer = tokenizer; }
+
+    public TokenBuffer(TokenStream stream) { this.stream = stream; }
+
+    public TokenBuffer(TokenRing ring) { this.ring = ring; }
+
+    public boolean isStream() { return stream != null; }
+
+    // a buffer of the same stream from the current token on, it is walked apart from this one
+    public TokenBuffer fork() {
+        TokenBuffer buffer = new TokenBuffer(stream);
+        buffer.position = position;
+        return buffer;
+    }
+
+    // Lexical error which ended the tokens, or null. It is known once the end of file is reached, a stream
+    // holds it from the start but keeps it until then like the others
+    public String getError() {
+        if (stream != null)
+            return endOfFile != null ? stream.getError() : null;
+        return error;
+    }
+
+    // the end of file the tokens ended at, after a lexical error it stands where the scanner stopped.
+    // Known when the error is
+    public Token getEndOfFile() { return endOfFile; }
+
+    public AtomTable getAtoms() {
+        if (stream != null)
+            return stream.getAtoms();
+        return ring != null ? ring.getAtoms() : tokenizer.getAtoms();
+    }
+
+    // comments are passed by, a lexical error is kept and ends the tokens like the end of file
+    private Token scan() {
+        try {
+            while (tokenizer.advance() && tokenizer.getCurrentToken() == null);
+        } catch (LexicalException e) {
+            error = e.getMessage();
+            tokenizer.passEndOfFile();
+        }
+        return tokenizer.getCurrentToken();
+    }
+
+    private void fill() {
+        int first = markCount > 0 ? marks[0] : Math.max(position, 0);
+        if (read - first == tokens.length) {
+            Token[] grown = new Token[tokens.length * 2];
+            for (int i = first; i < read; i++)
+                grown[i & (grown.length - 1)] = tokens[i & (tokens.length - 1)];
+            tokens = grown;
+        }
+        if (endOfFile == null) {
+            Token token = ring != null ? ring.take() : scan();
+            if (token.getTokenValue() == TokenValue.KEYWORD_EOF) {
+                endOfFile = token;
+                if (ring != null)
+                    error = ring.getError();
+            }
+            tokens[read & (tokens.length - 1)] = token;
+        }
+        else
+            tokens[read & (tokens.length - 1)] = endOfFile;
+        read++;
+    }
+
+    // the end of file of a stream counts as reached once a token is asked for there
+    private int index(int n) {
+        int last = stream.size() - 1;
+        if (position + n < last)
+            return position + n;
+        if (endOfFile == null)
+            endOfFile = stream.getToken(last);
+        return last;
+    }
+
+    public Token peek(int n) {
+        if (stream != null) {
+            int index = index(n);
+            if (index != lastIndex) {
+                lastToken = stream.getToken(index);
+                lastIndex = index;
+            }
+            return lastToken;
+        }
+        while (read <= position + n)
+            fill();
+        return tokens[(position + n) & (tokens.length - 1)];
+    }
+
+    public TokenValue peekValue(int n) {
+        return stream != null ? stream.getTokenValue(index(n)) : peek(n).getTokenValue();
+    }
+
+    public void next() {
+        if (stream == null || position < stream.size() - 1) // a stream stays on the end of file
+            position++;
+    }
+
+    public void mark() {
+        if (markCount == marks.length)
+            marks = Arrays.copyOf(marks, markCount * 2);
+        marks[markCount++] = position;
+    }
+
+    // back to the token current at the last mark
+    public void reset() { position = marks[--markCount]; }
+
+    public void release() { markCount--; }
+
+    // the parser is done, a pipelined scanner stops
+    public void close() {
+        if (ring != null)
+            ring.close();
+    }
+}
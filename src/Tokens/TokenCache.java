@@ -0,0 +1,279 @@
+package Tokens;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Token stream of a source kept next to it in a binary file and replayed while the text stays the same.
+// Layout: magic, version, length and hash of the source, checksum of the rest, then varints: spellings of the atoms, the kinds
+// of tokens by name, own texts of tokens by index, and a record per token (kind, line and offset deltas,
+// column, length, atom of an identifier, value of a number)
+public class TokenCache {
+    public static final String EXTENSION = ".tok";
+    private static final int MAGIC = 0x50544F4B; // "PTOK"
+    private static final int VERSION = 1;
+
+    // FNV-1a over the chars of the source
+    static long hash(char[] source) {
+        long hash = 0xCBF29CE484222325L;
+        for (char c : source) {
+            hash ^= c;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    // null when there is no file for this very text or it can't be read
+    public static TokenStream load(String sourcePath, char[] source, AtomTable atoms) {
+        Path path = Paths.get(sourcePath + EXTENSION);
+        if (!Files.isRegularFile(path))
+            return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION
+                    || in.getInt() != source.length || in.getLong() != hash(source))
+                return null;
+            long checksum = in.getLong();
+            CRC32 crc = new CRC32();
+            crc.update(in.slice());
+            if (crc.getValue() != checksum)
+                return null;
+            return decode(in, source, atoms);
+        } catch (IOException | RuntimeException e) {
+            return null; // a damaged file is as good as none, the source is scanned again
+        }
+    }
+
+    // The file is written aside and moved in place, a reader never sees half of it. The cache is
+    // optional, a file which can't be written is left out
+    public static void store(String sourcePath, TokenStream stream) {
+        Path path = Paths.get(sourcePath + EXTENSION).toAbsolutePath();
+        Path temporary = null;
+        try {
+            Output out = encode(stream);
+            temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            Files.write(temporary, Arrays.copyOf(out.bytes, out.size));
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                if (temporary != null)
+                    Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static Output encode(TokenStream stream) {
+        Output out = new Output();
+        char[] source = stream.getSource();
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(source.length);
+        out.putLong(hash(source));
+        int checksumAt = out.size;
+        out.putLong(0);
+
+        AtomTable atoms = stream.getAtoms();
+        out.putVarint(atoms.size());
+        for (int atom = 0; atom < atoms.size(); atom++)
+            out.putString(atoms.getSpelling(atom));
+
+        HashMap<Pair, Integer> kinds = new HashMap<>();
+        int[] tokenKinds = new int[stream.size()];
+        for (int i = 0; i < stream.size(); i++) {
+            Pair pair = TokenStream.getPair(stream.getTokenType(i).ordinal(), stream.getTokenValue(i).ordinal());
+            Integer kind = kinds.get(pair);
+            if (kind == null)
+                kinds.put(pair, kind = kinds.size());
+            tokenKinds[i] = kind;
+        }
+        Pair[] pairs = new Pair[kinds.size()];
+        for (Map.Entry<Pair, Integer> entry : kinds.entrySet())
+            pairs[entry.getValue()] = entry.getKey();
+        out.putVarint(pairs.length);
+        for (Pair pair : pairs) {
+            out.putString(pair.getTokenType().name());
+            out.putString(pair.getTokenValue().name());
+        }
+
+        int ownTexts = 0;
+        for (int i = 0; i < stream.size(); i++)
+            if (stream.getOwnText(i) != null)
+                ownTexts++;
+        out.putVarint(ownTexts);
+        for (int i = 0, last = 0; i < stream.size(); i++) {
+            if (stream.getOwnText(i) != null) {
+                out.putVarint(i - last);
+                out.putString(stream.getOwnText(i));
+                last = i;
+            }
+        }
+
+        out.putVarint(stream.size());
+        for (int i = 0, line = 0, offset = 0; i < stream.size(); i++) {
+            out.putVarint(tokenKinds[i]);
+            out.putSigned(stream.getLine(i) - line);
+            out.putSigned(stream.getColumn(i));
+            out.putSigned(stream.getOffset(i) - offset);
+            out.putVarint(stream.getLength(i));
+            line = stream.getLine(i);
+            offset = stream.getOffset(i);
+            if (stream.getTokenType(i) == TokenType.IDENTIFIER)
+                out.putVarint(stream.getAtom(i) + 1);
+            switch (stream.getTokenValue(i)) {
+                case CONST_INTEGER:
+                case CONST_HEX:
+                    out.putSigned(stream.getIntValue(i));
+                    break;
+                case CONST_DOUBLE:
+                    out.putLong(Double.doubleToRawLongBits(stream.getDoubleValue(i)));
+                    break;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.bytes, checksumAt + 8, out.size - checksumAt - 8);
+        int size = out.size;
+        out.size = checksumAt;
+        out.putLong(crc.getValue());
+        out.size = size;
+        return out;
+    }
+
+    private static TokenStream decode(ByteBuffer in, char[] source, AtomTable atoms) {
+        // atoms are interned again in their order, the table may already hold others
+        int[] atomMap = new int[getVarint(in)];
+        for (int i = 0; i < atomMap.length; i++)
+            atomMap[i] = atoms.intern(getString(in));
+
+        Pair[] kinds = new Pair[getVarint(in)];
+        for (int i = 0; i < kinds.length; i++) {
+            TokenType type = TokenType.valueOf(getString(in));
+            TokenValue value = TokenValue.valueOf(getString(in));
+            kinds[i] = TokenStream.getPair(type.ordinal(), value.ordinal());
+        }
+
+        int[] ownIndexes = new int[getVarint(in) + 1];
+        String[] ownTexts = new String[ownIndexes.length];
+        for (int i = 0, index = 0; i < ownIndexes.length - 1; i++) {
+            index += getVarint(in);
+            ownIndexes[i] = index;
+            ownTexts[i] = getString(in);
+        }
+        ownIndexes[ownIndexes.length - 1] = -1; // no more
+
+        int size = getVarint(in);
+        TokenStream stream = new TokenStream(source, atoms, Math.max(size, 1));
+        for (int i = 0, line = 0, offset = 0, own = 0; i < size; i++) {
+            Pair pair = kinds[getVarint(in)];
+            line += (int)getSigned(in);
+            int column = (int)getSigned(in);
+            offset += (int)getSigned(in);
+            int length = getVarint(in);
+            String ownText = null;
+            if (ownIndexes[own] == i)
+                ownText = ownTexts[own++];
+            if (ownText == null && (offset < 0 || offset + length > source.length))
+                throw new IllegalStateException("token out of the source");
+            int atom = -1;
+            if (pair.getTokenType() == TokenType.IDENTIFIER) {
+                int stored = getVarint(in);
+                atom = stored == 0 ? -1 : atomMap[stored - 1];
+            }
+            long intValue = 0;
+            double doubleValue = 0;
+            switch (pair.getTokenValue()) {
+                case CONST_INTEGER:
+                case CONST_HEX:
+                    intValue = getSigned(in);
+                    doubleValue = intValue;
+                    break;
+                case CONST_DOUBLE:
+                    doubleValue = Double.longBitsToDouble(in.getLong());
+                    intValue = (long)doubleValue;
+                    break;
+            }
+            stream.add(pair, line, column, offset, length, ownText, intValue, doubleValue, atom);
+        }
+        return stream;
+    }
+
+    private static int getVarint(ByteBuffer in) {
+        long value = getLongVarint(in);
+        if (value < 0 || value > Integer.MAX_VALUE)
+            throw new IllegalStateException("bad varint");
+        return (int)value;
+    }
+
+    private static long getLongVarint(ByteBuffer in) {
+        byte first = in.get();
+        if (first >= 0)
+            return first;
+        long value = first & 0x7F;
+        for (int shift = 7; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long)(b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalStateException("bad varint");
+    }
+
+    private static long getSigned(ByteBuffer in) {
+        long value = getLongVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static String getString(ByteBuffer in) {
+        char[] chars = new char[getVarint(in)];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = (char)getVarint(in);
+        return new String(chars);
+    }
+
+    private static class Output {
+        byte[] bytes = new byte[4096];
+        int size = 0;
+
+        void put(int b) {
+            if (size == bytes.length)
+                bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte)b;
+        }
+
+        void putInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8)
+                put(value >>> shift);
+        }
+
+        void putLong(long value) {
+            putInt((int)(value >>> 32));
+            putInt((int)value);
+        }
+
+        void putVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                put((int)(value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            put((int)value);
+        }
+
+        void putSigned(long value) {
+            putVarint((value << 1) ^ (value >> 63));
+        }
+
+        void putString(String text) {
+            putVarint(text.length());
+            for (int i = 0; i < text.length(); i++)
+                putVarint(text.charAt(i));
+        }
+    }
+}
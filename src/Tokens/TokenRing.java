@@ -0,0 +1,133 @@
+package Tokens;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Tokens scanned on a thread of their own and handed to a single reader through a bounded ring.
+// Only the scanner moves tail and only the reader moves head, each side publishes its index with
+// an ordered write and keeps a cached copy of the other one, so there are no locks on the way.
+// The scanner waits while the ring is full, which caps the memory one source takes
+public class TokenRing implements TokenSink {
+    private static final int SPINS = 64, YIELDS = 256;
+    private static final Pair endOfFile = new Pair(TokenType.END_OF_FILE, TokenValue.KEYWORD_EOF);
+
+    private final Token[] tokens;
+    private final int mask;
+    private final AtomTable atoms;
+    private final AtomicLong head = new AtomicLong(); // next token to take
+    private final AtomicLong tail = new AtomicLong(); // next free slot
+    private long cachedHead = 0; // scanner's view of head
+    private long cachedTail = 0; // reader's view of tail
+    private volatile boolean closed = false;
+    private volatile String error; // written before the end of file that follows it
+    private volatile Throwable failure; // of the scanner, written before the end of file like the error
+    private Token last;
+
+    private static class Cancelled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Cancelled() { super(null, null, false, false); }
+    }
+
+    private TokenRing(AtomTable atoms, int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        tokens = new Token[size];
+        mask = size - 1;
+        this.atoms = atoms;
+    }
+
+    // Start scanning the file on a daemon thread, capacity is rounded up to a power of two
+    public static TokenRing scan(String filePath, int capacity) {
+        Tokenizer tokenizer = new Tokenizer(filePath);
+        tokenizer.getAtoms().share();
+        TokenRing ring = new TokenRing(tokenizer.getAtoms(), capacity);
+        Thread scanner = new Thread(() -> ring.fill(tokenizer), "scanner " + filePath);
+        scanner.setDaemon(true);
+        scanner.start();
+        return ring;
+    }
+
+    public static TokenRing scan(String filePath) {
+        return scan(filePath, 4096);
+    }
+
+    private void fill(Tokenizer tokenizer) {
+        try {
+            tokenizer.tokenize(this);
+        } catch (LexicalException e) {
+            // the reader takes it on the end of file, after the tokens which came before the error
+            error = e.getMessage();
+            put(new Token(endOfFile, tokenizer.reader.xPos, tokenizer.reader.yPos, "\0"));
+        } catch (Cancelled e) {
+            // the reader is gone
+        } catch (Throwable e) {
+            // the reader gets it on the end of file instead of waiting for tokens which never come
+            failure = e;
+            try {
+                put(new Token(endOfFile, 0, 0, "\0"));
+            } catch (Cancelled gone) {
+                // nobody is waiting
+            }
+        }
+    }
+
+    public AtomTable getAtoms() { return atoms; }
+
+    @Override
+    public void add(Pair pair, int line, int column, int offset, CharSequence text,
+                    long intValue, double doubleValue, int atom) {
+        Token token = new Token(pair, line, column, text.toString(), intValue, doubleValue);
+        token.setAtom(atom);
+        put(token);
+    }
+
+    private static void idle(int round) {
+        if (round < SPINS)
+            return;
+        if (round < SPINS + YIELDS)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(50_000);
+    }
+
+    private void put(Token token) {
+        long position = tail.get();
+        for (int round = 0; position - cachedHead == tokens.length; round++) {
+            cachedHead = head.get();
+            if (closed)
+                throw new Cancelled();
+            idle(round);
+        }
+        tokens[(int)position & mask] = token;
+        tail.lazySet(position + 1);
+    }
+
+    // Next token, the end of file is returned over and over once reached. A failure of the scanner
+    // is thrown instead of it
+    public Token take() {
+        if (last != null && last.getTokenValue() == TokenValue.KEYWORD_EOF)
+            return endOfFile();
+        long position = head.get();
+        for (int round = 0; position == cachedTail; round++) {
+            cachedTail = tail.get();
+            idle(round);
+        }
+        int slot = (int)position & mask;
+        last = tokens[slot];
+        tokens[slot] = null;
+        head.lazySet(position + 1);
+        return last.getTokenValue() == TokenValue.KEYWORD_EOF ? endOfFile() : last;
+    }
+
+    private Token endOfFile() {
+        if (failure != null)
+            throw new IllegalStateException("Scanner failed", failure);
+        return last;
+    }
+
+    // lexical error which ended the tokens, or null. It is set before the end of file is put
+    public String getError() { return error; }
+
+    // The reader is done, a scanner waiting for room gives up
+    public void close() { closed = true; }
+}
@@ -0,0 +1,10 @@
+package Tokens;
+
+// Receiver of the tokens scanned by Tokenizer.tokenize, text and value are valid only during the call
+public interface TokenSink {
+
+    // numbers come with their value, a double literal has both the exact and the truncated one
+    void add(Pair pair, int line, int column, int offset, CharSequence text,
+             long intValue, double doubleValue, int atom);
+
+}
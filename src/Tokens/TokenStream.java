@@ -0,0 +1,463 @@
+package Tokens;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Tokens of a whole source kept in parallel primitive arrays, Token objects are built only on request.
+// The source and the arrays are gap buffers, an edit moves their gaps to itself and changes them there
+public class TokenStream implements TokenSink {
+    private static final TokenType[] tokenTypes = TokenType.values();
+    private static final TokenValue[] tokenValues = TokenValue.values();
+    private static final Pair[][] pairs = new Pair[tokenTypes.length][tokenValues.length];
+    // tokens scanned again before the one at an edit, numbers and operators look ahead a couple of chars
+    private static final int RESTART_MARGIN = 2;
+    // chars after an edit copied for scanning at first, up to the end of their line, and chars a token
+    // must end before the end of them
+    private static final int WINDOW = 256, LOOKAHEAD = 4;
+
+    // the text is source[0, sourceGap) and then source[sourceGapEnd, source.length)
+    private char[] source;
+    private int sourceGap, sourceGapEnd;
+    private int sourceLength;
+    private final AtomTable atoms;
+    private int size = 0;
+    // tokens are in slots [0, gap) and [gapEnd, capacity), offsets and lines of the ones after the gap
+    // are kept without the shifts of the edits before them
+    private int gap, gapEnd;
+    private int tailShift = 0, tailLineShift = 0;
+    private byte[] types;
+    private byte[] values;
+    private int[] offsets;
+    private int[] lengths;
+    private int[] lines;
+    private int[] columns;
+    private int[] tokenAtoms;
+    private long[] numbers; // value of a number literal, bits of a double one
+    // lexemes which are not a plain slice of the source (strings with '' or line breaks, end of file) by slot
+    private final HashMap<Integer, String> texts = new HashMap<>();
+    private String error; // lexical error which ended the stream, or null
+
+    static {
+        // all made at once, a finished stream is read by several parsers at a time
+        for (int type = 0; type < tokenTypes.length; type++)
+            for (int value = 0; value < tokenValues.length; value++)
+                pairs[type][value] = new Pair(tokenTypes[type], tokenValues[value]);
+    }
+
+    public TokenStream(char[] source, AtomTable atoms) {
+        this(source, atoms, 256);
+    }
+
+    TokenStream(char[] source, AtomTable atoms, int capacity) {
+        this.source = source;
+        sourceGap = sourceGapEnd = sourceLength = source.length;
+        this.atoms = atoms;
+        gapEnd = capacity;
+        types      = new byte[capacity];
+        values     = new byte[capacity];
+        offsets    = new int[capacity];
+        lengths    = new int[capacity];
+        lines      = new int[capacity];
+        columns    = new int[capacity];
+        tokenAtoms = new int[capacity];
+        numbers    = new long[capacity];
+    }
+
+    // the gap takes count tokens at least
+    private void reserve(int count) {
+        if (gapEnd - gap >= count)
+            return;
+        int capacity = Math.max(types.length * 2, size + count);
+        int tail = types.length - gapEnd, newGapEnd = capacity - tail;
+        types   = grow(types, new byte[capacity], newGapEnd, tail);
+        values  = grow(values, new byte[capacity], newGapEnd, tail);
+        offsets = grow(offsets, new int[capacity], newGapEnd, tail);
+        lengths = grow(lengths, new int[capacity], newGapEnd, tail);
+        lines   = grow(lines, new int[capacity], newGapEnd, tail);
+        columns = grow(columns, new int[capacity], newGapEnd, tail);
+        tokenAtoms = grow(tokenAtoms, new int[capacity], newGapEnd, tail);
+        numbers = grow(numbers, new long[capacity], newGapEnd, tail);
+        if (tail > 0)
+            moveTexts(gapEnd, newGapEnd, tail);
+        gapEnd = newGapEnd;
+    }
+
+    // the tokens before the gap and the tail ones after it go to both ends of the grown array
+    private <T> T grow(T array, T grown, int newGapEnd, int tail) {
+        System.arraycopy(array, 0, grown, 0, gap);
+        System.arraycopy(array, gapEnd, grown, newGapEnd, tail);
+        return grown;
+    }
+
+    private void moveTexts(int from, int to, int count) {
+        String[] moved = new String[count];
+        for (int i = 0; i < count; i++)
+            moved[i] = texts.remove(from + i);
+        for (int i = 0; i < count; i++)
+            if (moved[i] != null)
+                texts.put(to + i, moved[i]);
+    }
+
+    // slots [from, from + count) go to [to, to + count), their offsets and lines get the shifts
+    private void moveSlots(int from, int to, int count, int shift, int lineShift) {
+        System.arraycopy(types, from, types, to, count);
+        System.arraycopy(values, from, values, to, count);
+        System.arraycopy(offsets, from, offsets, to, count);
+        System.arraycopy(lengths, from, lengths, to, count);
+        System.arraycopy(lines, from, lines, to, count);
+        System.arraycopy(columns, from, columns, to, count);
+        System.arraycopy(tokenAtoms, from, tokenAtoms, to, count);
+        System.arraycopy(numbers, from, numbers, to, count);
+        for (int i = to; i < to + count; i++) {
+            offsets[i] += shift;
+            lines[i] += lineShift;
+        }
+        moveTexts(from, to, count);
+    }
+
+    // the gap goes before the token at index
+    private void moveGap(int index) {
+        int width = gapEnd - gap;
+        if (index < gap)
+            moveSlots(index, index + width, gap - index, -tailShift, -tailLineShift);
+        else if (index > gap)
+            moveSlots(gapEnd, gap, index - gap, tailShift, tailLineShift);
+        gap = index;
+        gapEnd = index + width;
+    }
+
+    private int slot(int index) { return index < gap ? index : index + gapEnd - gap; }
+
+    private char charAt(int offset) { return source[offset < sourceGap ? offset : offset + sourceGapEnd - sourceGap]; }
+
+    // chars [from, to) of the source to chars[at ...]
+    private void getChars(int from, int to, char[] chars, int at) {
+        int split = Math.max(from, Math.min(to, sourceGap));
+        System.arraycopy(source, from, chars, at, split - from);
+        System.arraycopy(source, split + sourceGapEnd - sourceGap, chars, at + split - from, to - split);
+    }
+
+    @Override
+    public void add(Pair pair, int line, int column, int offset, CharSequence text,
+                    long intValue, double doubleValue, int atom) {
+        add(pair, line, column, offset, text.length(), isSlice(offset, text) ? null : text.toString(),
+                intValue, doubleValue, atom);
+    }
+
+    // the text of a token is the slice of the source at offset unless it has its own one
+    void add(Pair pair, int line, int column, int offset, int length, String ownText,
+             long intValue, double doubleValue, int atom) {
+        reserve(1);
+        types[gap]   = (byte)pair.getTokenType().ordinal();
+        values[gap]  = (byte)pair.getTokenValue().ordinal();
+        offsets[gap] = offset;
+        lengths[gap] = length;
+        lines[gap]   = line;
+        columns[gap] = column;
+        tokenAtoms[gap] = atom;
+        numbers[gap] = pair.getTokenValue() == TokenValue.CONST_DOUBLE
+                ? Double.doubleToRawLongBits(doubleValue) : intValue;
+        if (ownText != null)
+            texts.put(gap, ownText);
+        gap++;
+        size++;
+    }
+
+    private boolean isSlice(int offset, CharSequence text) {
+        if (offset < 0 || offset + text.length() > sourceLength)
+            return false;
+        for (int i = 0; i < text.length(); i++)
+            if (charAt(offset + i) != text.charAt(i))
+                return false;
+        return true;
+    }
+
+    // first token which starts at offset or after it
+    private int find(int offset) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getOffset(middle) < offset)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    // the lexeme of a string goes without its opening apostrophe
+    private int getStart(int index) {
+        return getTokenType(index) == TokenType.STRING ? getOffset(index) - 1 : getOffset(index);
+    }
+
+    private int getLineStart(int offset) {
+        while (offset > 0 && charAt(offset - 1) != '\n' && charAt(offset - 1) != '\r')
+            offset--;
+        return offset;
+    }
+
+    // past the line break which ends the line of offset, a window cut in a line could end in a token
+    // the whole line doesn't have
+    private int getLineEnd(int offset) {
+        while (offset < sourceLength && charAt(offset) != '\n' && charAt(offset) != '\r')
+            offset++;
+        if (offset < sourceLength && charAt(offset++) == '\r' && offset < sourceLength && charAt(offset) == '\n')
+            offset++;
+        return offset;
+    }
+
+    // a token read across a line break is reported on the next line, scanning can't start at it
+    private boolean isAligned(int index) {
+        int start = getStart(index);
+        return getColumn(index) == start - getLineStart(start) + 1;
+    }
+
+    // tokens [from, to) of a stream which was not edited go after the last ones, which are at the end
+    private void copy(TokenStream stream, int from, int to, int lineShift) {
+        int count = to - from;
+        reserve(count);
+        System.arraycopy(stream.types, from, types, gap, count);
+        System.arraycopy(stream.values, from, values, gap, count);
+        System.arraycopy(stream.offsets, from, offsets, gap, count);
+        System.arraycopy(stream.lengths, from, lengths, gap, count);
+        System.arraycopy(stream.columns, from, columns, gap, count);
+        System.arraycopy(stream.tokenAtoms, from, tokenAtoms, gap, count);
+        System.arraycopy(stream.numbers, from, numbers, gap, count);
+        for (int i = 0; i < count; i++)
+            lines[gap + i] = stream.lines[from + i] + lineShift;
+        for (Map.Entry<Integer, String> entry : stream.texts.entrySet())
+            if (entry.getKey() >= from && entry.getKey() < to)
+                texts.put(entry.getKey() - from + gap, entry.getValue());
+        gap += count;
+        size += count;
+    }
+
+    // Token of this stream the last one scanned from start of the edited source is equal to, once it
+    // lies after the edit. Unless the window reaches the end of the source, the token must end a few
+    // chars before the end of it so that no char which was cut off could have changed it
+    private int resync(TokenStream scanned, int start, int end, int shift, boolean complete) {
+        int last = scanned.size - 1;
+        int offset = scanned.offsets[last] + start;
+        if (offset < end)
+            return -1;
+        if (!complete && scanned.offsets[last] + scanned.lengths[last] + LOOKAHEAD > scanned.sourceLength)
+            return -1;
+        int match = find(offset - shift);
+        if (match == size || getOffset(match) != offset - shift)
+            return -1;
+        int slot = slot(match);
+        if (types[slot] != scanned.types[last] || values[slot] != scanned.values[last]
+                || lengths[slot] != scanned.lengths[last] || columns[slot] != scanned.columns[last])
+            return -1;
+        return match;
+    }
+
+    // Tokens [from, to) of a stream scanned with an atom table of its own, lines of which run lineShift
+    // behind. Atoms are numbered into this stream's table in order of appearance as a serial scan does,
+    // links holds the atoms of this table by the ones of the other, -1 for those not met yet. Neither
+    // stream has been edited
+    void append(TokenStream stream, int from, int to, int lineShift, int[] links) {
+        int first = size;
+        copy(stream, from, to, lineShift);
+        for (int i = first; i < size; i++) {
+            int atom = tokenAtoms[i];
+            if (atom < 0)
+                continue;
+            if (links[atom] < 0)
+                links[atom] = atoms.intern(getText(i));
+            tokenAtoms[i] = links[atom];
+        }
+    }
+
+    // token at the same offset as the one of the other stream at index if both are equal, or -1.
+    // Lines of the other stream run lineShift ahead of the ones here
+    int match(TokenStream stream, int index, int lineShift) {
+        int i = find(stream.offsets[index]);
+        if (i == size || offsets[i] != stream.offsets[index])
+            return -1;
+        if (types[i] != stream.types[index] || values[i] != stream.values[index]
+                || lengths[i] != stream.lengths[index] || columns[i] != stream.columns[index]
+                || lines[i] + lineShift != stream.lines[index])
+            return -1;
+        return i;
+    }
+
+    // Replaces removed chars at offset of the source with inserted and the tokens with the ones of the
+    // new source. Scanning starts a few tokens before the edit on a copy of the chars around it and
+    // stops as soon as a token lines up with the old ones again, a copy too short for that is made
+    // twice as long. The tokens in between go into the gap, so an edit costs about the chars scanned
+    // and the distance to the last edit. The stream must not be read while it is edited
+    public void edit(int offset, int removed, CharSequence inserted) {
+        int end = offset + inserted.length();
+        int shift = inserted.length() - removed;
+        int restart = Math.max(0, find(offset) - RESTART_MARGIN);
+        while (restart > 0 && !isAligned(restart))
+            restart--;
+        int start = restart == 0 ? 0 : getLineStart(getStart(restart));
+        TokenStream scanned;
+        int match = -1;
+        for (int tail = WINDOW; ; tail *= 2) {
+            int windowEnd = getLineEnd(Math.min(sourceLength, offset + removed + tail));
+            boolean complete = windowEnd == sourceLength;
+            char[] window = new char[end - start + windowEnd - offset - removed];
+            getChars(start, offset, window, 0);
+            for (int i = 0; i < inserted.length(); i++)
+                window[offset - start + i] = inserted.charAt(i);
+            getChars(offset + removed, windowEnd, window, end - start);
+            scanned = new TokenStream(window, atoms, 64);
+            Tokenizer tokenizer = restart == 0
+                    ? new Tokenizer(window, 0, 1, atoms, scanned)
+                    : new Tokenizer(window, getStart(restart) - start, getLine(restart), atoms, scanned);
+            try {
+                int count = 0;
+                while (match < 0 && tokenizer.advance()) {
+                    if (scanned.size == count)
+                        continue; // a comment
+                    count = scanned.size;
+                    match = resync(scanned, start, end, shift, complete);
+                }
+            } catch (LexicalException e) {
+                if (!complete)
+                    continue;
+                scanned.error = e.getMessage();
+                tokenizer.passEndOfFile();
+            }
+            if (match >= 0 || complete)
+                break;
+        }
+
+        // the token which lined up stays, the old ones from it on are shifted
+        int count = match >= 0 ? scanned.size - 1 : scanned.size;
+        int dropped = (match >= 0 ? match : size) - restart;
+        int lineShift = match >= 0 ? scanned.lines[count] - getLine(match) : 0;
+        moveGap(restart);
+        for (int i = 0; i < dropped; i++)
+            texts.remove(gapEnd + i);
+        gapEnd += dropped;
+        size -= dropped;
+        tailShift += shift;
+        tailLineShift += lineShift;
+        reserve(count);
+        insert(scanned, count, start);
+        if (match < 0)
+            error = scanned.error; // the rest up to the end is the previous one otherwise
+        editSource(offset, removed, inserted);
+    }
+
+    // the first count tokens of a stream of chars from start on go into the gap
+    private void insert(TokenStream scanned, int count, int start) {
+        System.arraycopy(scanned.types, 0, types, gap, count);
+        System.arraycopy(scanned.values, 0, values, gap, count);
+        System.arraycopy(scanned.lengths, 0, lengths, gap, count);
+        System.arraycopy(scanned.lines, 0, lines, gap, count);
+        System.arraycopy(scanned.columns, 0, columns, gap, count);
+        System.arraycopy(scanned.tokenAtoms, 0, tokenAtoms, gap, count);
+        System.arraycopy(scanned.numbers, 0, numbers, gap, count);
+        for (int i = 0; i < count; i++) {
+            offsets[gap + i] = scanned.offsets[i] + start;
+            String text = scanned.texts.get(i);
+            if (text != null)
+                texts.put(gap + i, text);
+        }
+        gap += count;
+        size += count;
+    }
+
+    private void editSource(int offset, int removed, CharSequence inserted) {
+        int width = sourceGapEnd - sourceGap;
+        if (offset < sourceGap)
+            System.arraycopy(source, offset, source, offset + width, sourceGap - offset);
+        else
+            System.arraycopy(source, sourceGapEnd, source, sourceGap, offset - sourceGap);
+        sourceGap = offset;
+        sourceGapEnd = offset + width + removed;
+        sourceLength -= removed;
+        if (sourceGapEnd - sourceGap < inserted.length()) {
+            int tail = source.length - sourceGapEnd;
+            char[] grown = new char[sourceLength + inserted.length() + (sourceLength >> 3) + 16];
+            System.arraycopy(source, 0, grown, 0, sourceGap);
+            System.arraycopy(source, sourceGapEnd, grown, grown.length - tail, tail);
+            source = grown;
+            sourceGapEnd = grown.length - tail;
+        }
+        for (int i = 0; i < inserted.length(); i++)
+            source[sourceGap++] = inserted.charAt(i);
+        sourceLength += inserted.length();
+    }
+
+    public int size() { return size; }
+
+    // the source in one piece, a copy of it once the stream has been edited
+    char[] getSource() {
+        if (sourceGap == sourceLength && sourceLength == source.length)
+            return source;
+        char[] chars = new char[sourceLength];
+        getChars(0, sourceLength, chars, 0);
+        return chars;
+    }
+
+    String getOwnText(int index) { return texts.get(slot(index)); }
+
+    public TokenType getTokenType(int index) { return tokenTypes[types[slot(index)]]; }
+
+    public TokenValue getTokenValue(int index) { return tokenValues[values[slot(index)]]; }
+
+    public int getOffset(int index) { return index < gap ? offsets[index] : offsets[slot(index)] + tailShift; }
+
+    public int getLength(int index) { return lengths[slot(index)]; }
+
+    public int getLine(int index) { return index < gap ? lines[index] : lines[slot(index)] + tailLineShift; }
+
+    public int getColumn(int index) { return columns[slot(index)]; }
+
+    public int getAtom(int index) { return tokenAtoms[slot(index)]; }
+
+    public AtomTable getAtoms() { return atoms; }
+
+    public String getError() { return error; }
+
+    void setError(String error) { this.error = error; }
+
+    public String getText(int index) {
+        String text = texts.get(slot(index));
+        if (text != null)
+            return text;
+        int offset = getOffset(index), length = getLength(index);
+        if (offset + length <= sourceGap)
+            return new String(source, offset, length);
+        char[] chars = new char[length];
+        getChars(offset, offset + length, chars, 0);
+        return new String(chars);
+    }
+
+    public long getIntValue(int index) {
+        return getTokenValue(index) == TokenValue.CONST_DOUBLE ? (long)getDoubleValue(index) : numbers[slot(index)];
+    }
+
+    public double getDoubleValue(int index) {
+        long number = numbers[slot(index)];
+        return getTokenValue(index) == TokenValue.CONST_DOUBLE ? Double.longBitsToDouble(number) : number;
+    }
+
+    public String getValue(int index) {
+        switch (getTokenValue(index)) {
+            case CONST_INTEGER:
+            case CONST_HEX:
+                return String.valueOf(numbers[slot(index)]);
+            case CONST_DOUBLE:
+                return String.valueOf(getDoubleValue(index));
+            default:
+                return null;
+        }
+    }
+
+    static Pair getPair(int type, int value) { return pairs[type][value]; }
+
+    public Token getToken(int index) {
+        int slot = slot(index);
+        Token token = new Token(getPair(types[slot], values[slot]), getLine(index), columns[slot],
+                getText(index), getIntValue(index), getDoubleValue(index));
+        token.setAtom(tokenAtoms[slot]);
+        return token;
+    }
+}
@@ -0,0 +1,158 @@
+package Tokens;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+// Table of tokens in the layout of Token.toString, lines are formatted in place and written in large blocks
+public class TokenWriter implements TokenSink {
+    private static final int CAPACITY = 1 << 16;
+    private static final String lineSeparator = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final Charset charset = Charset.defaultCharset();
+    private final ByteBuffer bytes = ByteBuffer.allocate(CAPACITY);
+    private char[] line = new char[256];
+    private int length = 0;
+
+    public TokenWriter(OutputStream out) {
+        channel = Channels.newChannel(out);
+    }
+
+    private void ensure(int count) {
+        if (length + count > line.length) {
+            char[] newLine = new char[Math.max(line.length * 2, length + count)];
+            System.arraycopy(line, 0, newLine, 0, length);
+            line = newLine;
+        }
+    }
+
+    private void append(String text) {
+        ensure(text.length());
+        text.getChars(0, text.length(), line, length);
+        length += text.length();
+    }
+
+    private void append(CharSequence text) {
+        ensure(text.length());
+        for (int i = 0; i < text.length(); i++)
+            line[length++] = text.charAt(i);
+    }
+
+    private void space(int count) {
+        if (count <= 0)
+            return;
+        ensure(count);
+        for (int i = 0; i < count; i++)
+            line[length++] = ' ';
+    }
+
+    private static int digits(long number) {
+        int count = number < 0 ? 2 : 1;
+        for (number /= 10; number != 0; number /= 10)
+            count++;
+        return count;
+    }
+
+    private void append(long number) {
+        int count = digits(number);
+        ensure(count);
+        if (number < 0)
+            line[length] = '-';
+        int i = length + count;
+        do {
+            line[--i] = (char)('0' + Math.abs(number % 10));
+            number /= 10;
+        } while (number != 0);
+        length += count;
+    }
+
+    @Override
+    public void add(Pair pair, int line, int column, int offset, CharSequence text,
+                    long intValue, double doubleValue, int atom) {
+        if (pair.getTokenType() == TokenType.END_OF_FILE) {
+            println("END OF FILE");
+            return;
+        }
+        String tokenType = pair.getTokenType().toString();
+        String tokenValue = pair.getTokenValue().toString();
+        append(line);
+        space(3 - digits(line));
+        append("|");
+        space(3 - digits(column));
+        append(column);
+        append(" | ");
+        append(tokenType);
+        space(11 - tokenType.length());
+        append(" | ");
+        append(tokenValue);
+        space(28 - tokenValue.length());
+        append("| ");
+        append(text);
+        space(10 - text.length());
+        append("| ");
+        switch (pair.getTokenValue()) {
+            case CONST_INTEGER:
+            case CONST_HEX:
+                append(intValue);
+                break;
+            case CONST_DOUBLE:
+                append(String.valueOf(doubleValue));
+                break;
+        }
+        endLine();
+    }
+
+    public void println(String text) {
+        append(String.valueOf(text));
+        endLine();
+    }
+
+    private void endLine() {
+        append(lineSeparator);
+        if (bytes.remaining() < length)
+            flushBytes();
+        int start = bytes.position();
+        for (int i = 0; i < length; i++) {
+            if (line[i] >= 0x80 || !bytes.hasRemaining()) {
+                // not ASCII or longer than the buffer, let the charset encode the line
+                bytes.position(start);
+                put(charset.encode(CharBuffer.wrap(line, 0, length)));
+                break;
+            }
+            bytes.put((byte)line[i]);
+        }
+        length = 0;
+    }
+
+    private void put(ByteBuffer encoded) {
+        if (bytes.remaining() < encoded.remaining())
+            flushBytes();
+        if (bytes.remaining() < encoded.remaining())
+            write(encoded);
+        else
+            bytes.put(encoded);
+    }
+
+    private void write(ByteBuffer buffer) {
+        try {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushBytes() {
+        bytes.flip();
+        write(bytes);
+        bytes.clear();
+    }
+
+    public void flush() { flushBytes(); }
+}
@@ -1,19 +1,51 @@
 package Tokens;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
-
-public class Tokenizer {
-    public static Reader reader;
-    private static StringBuilder builder;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+
+public class Tokenizer implements Iterable<Token> {
+    // one reader and builder per tokenizer, chunks of a source are scanned side by side
+    public final Reader reader;
+    private final StringBuilder builder = new StringBuilder();
     private static HashMap<String, Pair> operators, separators, words;
+    // character classes, a char may belong to several of them
+    private static final int WORD_START = 1, WORD_PART = 2, DIGIT = 4, HEX_DIGIT = 8,
+            SEPARATOR = 16, OPERATOR = 32, SPACE = 64;
+    private static final byte[] charClasses = new byte[128];
+    private static final Pair[] charPairs = new Pair[128];
+    private static final String[] charTexts = new String[128];
+    private static final Pair identifier = new Pair(TokenType.IDENTIFIER, TokenValue.VARIABLE);
+    private static final Pair integer = new Pair(TokenType.INTEGER, TokenValue.CONST_INTEGER);
+    private static final Pair real = new Pair(TokenType.DOUBLE, TokenValue.CONST_DOUBLE);
+    private static final Pair hex = new Pair(TokenType.HEX, TokenValue.CONST_HEX);
+    // powers of ten a double holds exactly
+    private static final double[] powersOfTen = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    private static final long MAX_EXACT = 1L << 53;
+    private static KeywordTable keywords;
     private State currentState = State.FREE;
     private boolean isDouble = false;
+    // value of the number being scanned, digits of the fraction go into the mantissa too
+    private long mantissa;
+    private boolean mantissaTruncated;
+    private int fractionDigits;
+    private int exponent;
+    private boolean negativeExponent;
     private boolean hasNext = true;
 
     private Token currentToken;
+    private TokenSink sink;
+    private final AtomTable atoms;
+    private String filePath;
+    private int tokenOffset;
 
     static {
-        builder     = new StringBuilder();
         operators   = new HashMap<String, Pair>() {{
             put("+", new Pair(TokenType.OPERATOR, TokenValue.OP_PLUS));
             put("-", new Pair(TokenType.OPERATOR, TokenValue.OP_MINUS));
@@ -62,8 +94,6 @@ public class Tokenizer {
             put("file",     new Pair(TokenType.KEYWORD, TokenValue.KEYWORD_FILE));
             put("for",      new Pair(TokenType.KEYWORD, TokenValue.KEYWORD_FOR));
             put("function", new Pair(TokenType.KEYWORD, TokenValue.KEYWORD_FUNCTION));
-            put("end",      new Pair(TokenType.KEYWORD, TokenValue.KEYWORD_END));
-            put("exit",     new Pair(TokenType.KEYWORD, TokenValue.KEYWORD_EXIT));
             put("if",       new Pair(TokenType.KEYWORD, TokenValue.KEYWORD_IF));
             put("in",       new Pair(TokenType.KEYWORD, TokenValue.KEYWORD_IF));
             put("mod",      new Pair(TokenType.OPERATOR, TokenValue.KEYWORD_MOD));
@@ -93,6 +123,38 @@ public class Tokenizer {
             put("read",     new Pair(TokenType.KEYWORD, TokenValue.KEYWORD_READ));
             put("readln",   new Pair(TokenType.KEYWORD, TokenValue.KEYWORD_READLN));
         }};
+        for (char c = 'a'; c <= 'z'; c++) {
+            addClass(c, WORD_START | WORD_PART);
+            addClass(Character.toUpperCase(c), WORD_START | WORD_PART);
+        }
+        addClass('_', WORD_START | WORD_PART);
+        addClass('\'', WORD_START | WORD_PART);
+        for (char c = '0'; c <= '9'; c++)
+            addClass(c, WORD_PART | DIGIT | HEX_DIGIT);
+        for (char c = 'A'; c <= 'F'; c++)
+            addClass(c, HEX_DIGIT);
+        for (char c : " \t\n\u000B\f\r".toCharArray())
+            addClass(c, SPACE);
+        addSingleChars(separators, SEPARATOR);
+        addSingleChars(operators, OPERATOR);
+        keywords = new KeywordTable(words);
+    }
+
+    private static void addClass(char c, int charClass) {
+        charClasses[c] |= charClass;
+    }
+
+    private static void addSingleChars(HashMap<String, Pair> tokens, int charClass) {
+        for (String key : tokens.keySet()) {
+            char c = key.charAt(0);
+            addClass(c, charClass);
+            charPairs[c] = tokens.get(key);
+            charTexts[c] = key;
+        }
+    }
+
+    private static boolean is(char c, int charClass) {
+        return c < 128 && (charClasses[c] & charClass) != 0;
     }
 
     public static HashMap<String, Pair> getOperators() { return operators; }
@@ -112,6 +174,8 @@ public class Tokenizer {
 
     public Tokenizer(String filePath) {
         reader = new Reader(filePath);
+        atoms = new AtomTable();
+        this.filePath = filePath;
 //        File directory = new File("./src/Test/output.txt");
 //        try {
 //            bufferedWriter = new BufferedWriter(new FileWriter(directory));
@@ -120,79 +184,232 @@ public class Tokenizer {
 //        }
     }
 
+    // sources from memory, there is no file to cache their tokens next to. See Reader for which of them
+    // are copied
+    public Tokenizer(char[] source) { this(new Reader(source)); }
+
+    public Tokenizer(ByteBuffer source) { this(new Reader(source)); }
+
+    public Tokenizer(InputStream source) throws IOException { this(new Reader(source)); }
+
+    private Tokenizer(Reader reader) {
+        this.reader = reader;
+        atoms = new AtomTable();
+    }
+
+    // Scan the chars around an edit of a stream from the place of one of its tokens on
+    Tokenizer(char[] source, int offset, int line, AtomTable atoms, TokenSink sink) {
+        reader = new Reader(source, offset, line);
+        this.atoms = atoms;
+        this.sink = sink;
+    }
+
     private void setCurrentToken(Token currentToken) {
         this.currentToken = currentToken;
         hasNext = true;
     }
 
-    private boolean isNum(char c) { return ('0' <= c) && ('9' >= c); }
+    private boolean isNum(char c) { return is(c, DIGIT); }
 
     public Token getCurrentToken() { return currentToken; }
 
+    public AtomTable getAtoms() { return atoms; }
+
     public Token getNextToken() { Next(); return currentToken; }
 
     private void identifyType(char c) throws LexicalException {
-        if (String.valueOf(c).matches("[a-zA-Z]|_|\'"))
+        while (is(c, SPACE))
+            c = reader.getChar();
+        tokenOffset = reader.getOffset();
+        if (is(c, WORD_START))
             parseWord(c);
-        else if (separators.containsKey(Character.toString(c)))
+        else if (is(c, SEPARATOR))
             parseSeparator(c);
-        else if (operators.containsKey(Character.toString(c)))
+        else if (is(c, OPERATOR))
             parseOperator(c);
         else if (isNum(c))
             parseNum(c);
-        else if (String.valueOf(c).matches("\\s"))
-            identifyType(reader.getChar());
     }
 
-    public boolean Next() {
+    boolean advance() throws LexicalException {
         currentToken = null;
         //tokenArrayList.clear();
         char c = reader.getChar();
         if (c == '\0') {
-            currentToken = new Token(new Pair(TokenType.END_OF_FILE, TokenValue.KEYWORD_EOF),
-                    reader.xPos, reader.yPos, "\0");
+            passEndOfFile();
             return false;
         }
+        identifyType(c);
+        return hasNext;
+    }
+
+    public boolean Next() {
         try {
-            identifyType(c);
+            return advance();
         } catch (LexicalException e) {
             System.out.println(e.getMessage());
             return false;
-        } catch (NumberFormatException e) {
-            System.out.println("Exception: overflow");
-            return false;
         }
-        return hasNext;
     }
 
     public void print() {
         System.out.println(currentToken);
     }
 
-    private void passToken(Pair pair, int x, int y, String text,String value) {
-        setCurrentToken(new Token(pair, x, y, text, value));
+    void passEndOfFile() {
+        Pair pair = new Pair(TokenType.END_OF_FILE, TokenValue.KEYWORD_EOF);
+        if (sink != null)
+            sink.add(pair, reader.xPos, reader.yPos, reader.getBuffer().length, "\0", 0, 0, -1);
+        else
+            currentToken = new Token(pair, reader.xPos, reader.yPos, "\0");
     }
 
-    private void passToken(Pair pair, int x, int y, String text) {
-        setCurrentToken(new Token(pair, x, y, text));
+    // Scan the rest of the source into a compact stream, a lexical error ends it like the end of file
+    // and is kept by the stream
+    public TokenStream tokenize() {
+        return scan(false);
+    }
+
+    // Same as tokenize, but the stream is replayed from the token file next to the source if that was
+    // written for the same text, and is written there otherwise. A stream cut by an error is not kept
+    public TokenStream tokenizeCached() {
+        if (filePath == null)
+            return scan(false); // a source from memory has no file to keep the stream next to
+        TokenStream stream = TokenCache.load(filePath, reader.getBuffer(), atoms);
+        return stream != null ? stream : scan(true);
+    }
+
+    // Same stream as tokenize for the whole source, chunks of lines are scanned on the pool side by side
+    public TokenStream tokenizeParallel(ForkJoinPool pool) {
+        return new ParallelScan(reader.getBuffer(), atoms, pool).scan();
+    }
+
+    public TokenStream tokenizeParallel() {
+        return tokenizeParallel(ForkJoinPool.commonPool());
+    }
+
+    private TokenStream scan(boolean store) {
+        TokenStream stream = new TokenStream(reader.getBuffer(), atoms);
+        sink = stream;
+        try {
+            while (advance());
+            if (store)
+                TokenCache.store(filePath, stream);
+        } catch (LexicalException e) {
+            stream.setError(e.getMessage());
+            passEndOfFile();
+        } finally {
+            sink = null;
+        }
+        return stream;
+    }
+
+    // Feed the rest of the source to the sink up to the end of file token, comments are not passed
+    public void tokenize(TokenSink sink) throws LexicalException {
+        this.sink = sink;
+        try {
+            while (advance());
+        } finally {
+            this.sink = null;
+        }
     }
 
-    private void prepareNumberToken(int x, int y) {
+    // Tokens up to the end of file one at a time, comments are skipped
+    @Override
+    public Iterator<Token> iterator() {
+        return new Iterator<Token>() {
+            private Token next;
+            private boolean finished = false;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && !finished) {
+                    try {
+                        finished = !advance();
+                    } catch (LexicalException e) {
+                        throw new IllegalStateException(e.getMessage(), e);
+                    }
+                    next = currentToken;
+                }
+                return next != null;
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Token token = next;
+                next = null;
+                return token;
+            }
+        };
+    }
+
+    private void passToken(Pair pair, int x, int y, CharSequence text, long intValue, double doubleValue, int atom) {
+        if (sink != null) {
+            sink.add(pair, x, y, tokenOffset, text, intValue, doubleValue, atom);
+            hasNext = true;
+        }
+        else {
+            Token token = new Token(pair, x, y, text.toString(), intValue, doubleValue);
+            token.setAtom(atom);
+            setCurrentToken(token);
+        }
+    }
+
+    private void passToken(Pair pair, int x, int y, CharSequence text, int atom) {
+        passToken(pair, x, y, text, 0, 0, atom);
+    }
+
+    private void passToken(Pair pair, int x, int y, CharSequence text) {
+        passToken(pair, x, y, text, 0, 0, -1);
+    }
+
+    private void addMantissaDigit(char c) {
+        if (mantissaTruncated)
+            return;
+        mantissa = mantissa * 10 + (c - '0');
+        if (mantissa > MAX_EXACT)
+            mantissaTruncated = true;
+    }
+
+    private void addExponentDigit(char c) {
+        // anything this large is out of the exact range anyway
+        exponent = Math.min(exponent * 10 + (c - '0'), 10000);
+    }
+
+    private double getDoubleValue() {
+        int scale = (negativeExponent ? -exponent : exponent) - fractionDigits;
+        if (!mantissaTruncated && scale >= -22 && scale <= 22)
+            // both operands are exact, so is the rounding of the result
+            return scale < 0 ? mantissa / powersOfTen[-scale] : mantissa * powersOfTen[scale];
+        return Double.parseDouble(builder.toString());
+    }
+
+    private void prepareNumberToken(int x, int y) throws LexicalException {
         if (isDouble) {
-            //System.out.println(builder.toString());
-            passToken(new Pair(TokenType.DOUBLE, TokenValue.CONST_DOUBLE), x, y,
-                    builder.toString(), String.valueOf(Double.parseDouble(builder.toString())));
+            char lastChar = builder.charAt(builder.length() - 1);
+            if (lastChar != '.' && !isNum(lastChar))
+                throw new LexicalException("Exception: overflow"); // unfinished exponent at the end of line
+            double value = getDoubleValue();
+            passToken(real, x, y, builder, (long)value, value, -1);
+        }
+        else {
+            // a number cut at ".." after digits of the fraction keeps its dot
+            if (mantissaTruncated || mantissa > Integer.MAX_VALUE || fractionDigits > 0)
+                throw new LexicalException("Exception: overflow");
+            passToken(integer, x, y, builder, mantissa, mantissa, -1);
         }
-        else
-            passToken(new Pair(TokenType.INTEGER, TokenValue.CONST_INTEGER), x, y,
-                    builder.toString(), String.valueOf(Integer.parseInt(builder.toString())));
     }
 
     private void prepareWordToken(int x, int y) {
-        if (words.containsKey(builder.toString().toLowerCase()))
-            passToken(words.get(builder.toString().toLowerCase()), x, y, builder.toString());
-        else
-            passToken(new Pair(TokenType.IDENTIFIER, TokenValue.VARIABLE), x, y, builder.toString());
+        int keyword = keywords.find(builder);
+        if (keyword >= 0)
+            passToken(keywords.getPair(keyword), x, y, keywords.getText(keyword, builder));
+        else {
+            int atom = atoms.intern(builder);
+            passToken(identifier, x, y, atoms.getText(atom, builder), atom);
+        }
     }
 
     private boolean isValidState() { return currentState != State.NOT_NUMBER; }
@@ -206,6 +423,11 @@ public class Tokenizer {
         builder.setLength(0);
         currentState = State.FREE;
         isDouble = false;
+        mantissa = 0;
+        mantissaTruncated = false;
+        fractionDigits = 0;
+        exponent = 0;
+        negativeExponent = false;
 
         while (isValidState()) {
 
@@ -213,6 +435,7 @@ public class Tokenizer {
                 case FREE:
                     currentState = State.WAITING_DOT;
                     builder.append(c);
+                    addMantissaDigit(c);
                     break;
                 case WAITING_DOT:
                     if (c == '.') {
@@ -225,8 +448,10 @@ public class Tokenizer {
                         builder.append(c);
                         isDouble = true;
                     }
-                    else if (isNum(c))
+                    else if (isNum(c)) {
                         builder.append(c);
+                        addMantissaDigit(c);
+                    }
                     else
                         currentState = State.NOT_NUMBER;
                     break;
@@ -236,8 +461,11 @@ public class Tokenizer {
                         builder.append(c);
                         currentState = State.WAITING_PLUS_MINUS;
                     }
-                    else if (isNum(c))
+                    else if (isNum(c)) {
                         builder.append(c);
+                        addMantissaDigit(c);
+                        fractionDigits++;
+                    }
                     else if (c == '.') {
                         builder.deleteCharAt(builder.length() - 1);
                         reader.singleCharacterRollback();
@@ -257,10 +485,13 @@ public class Tokenizer {
                             break;
                         }
                         builder.append(c);
+                        negativeExponent = c == '-';
                         currentState = State.WAITING_NUMBERS;
                     }
-                    else if (isNum(c))
+                    else if (isNum(c)) {
                         builder.append(c);
+                        addExponentDigit(c);
+                    }
                     else if (lastChar == 'e' || lastChar == 'E')
                         throw new LexicalException("Exception: the number can't end at the exp");
                     else
@@ -268,8 +499,10 @@ public class Tokenizer {
                     break;
                 case WAITING_NUMBERS:
                     lastChar = builder.charAt(builder.length() - 1);
-                    if (isNum(c))
+                    if (isNum(c)) {
                         builder.append(c);
+                        addExponentDigit(c);
+                    }
                     else if (lastChar == '+' || lastChar == '-')
                         throw new LexicalException("Exception: the number can't end at the symbol of plus or minus");
                     else
@@ -294,6 +527,11 @@ public class Tokenizer {
             reader.singleCharacterRollback();
     }
 
+    private void throwUnclosedComment() throws LexicalException {
+        while (reader.getChar() != '\0'); // the end of file is reported where the reader stops
+        throw new LexicalException("Exception: unclosed comment");
+    }
+
     private void parseSeparator(char c) throws LexicalException {
         if (c == '.') {
             // special symbol
@@ -305,47 +543,37 @@ public class Tokenizer {
                     passToken(new Pair(TokenType.SEPARATOR, TokenValue.SEP_DOUBLE_DOT),
                             reader.xPos, reader.yPos - 1, "..");
                 else {
-                    passToken(separators.get(Character.toString(c)),
-                            reader.xPos, reader.yPos, Character.toString(c));
+                    passToken(charPairs[c], reader.xPos, reader.yPos, charTexts[c]);
                     reader.singleCharacterRollback();
                 }
             }
             else
-                passToken(separators.get(Character.toString(c)),
-                        reader.xPos, reader.yPos, Character.toString(c));
+                passToken(charPairs[c], reader.xPos, reader.yPos, charTexts[c]);
         }
         else if (c == '{') {
-            char nextChar = '\0';
-            while(nextChar != '}') {
-                nextChar = reader.getChar();
-                if (nextChar == '\0')
-                    throw new LexicalException("Exception: unclosed comment");
-            }
+            if (!reader.skipTo('}'))
+                throwUnclosedComment();
         }
         else if (c == '(') {
             char nextChar = reader.getChar();
             if (nextChar != '*') {
                 reader.singleCharacterRollback();
-                passToken(new Pair(TokenType.SEPARATOR, TokenValue.SEP_BRACKETS_LEFT),
-                        reader.xPos, reader.yPos, Character.toString(c));
+                passToken(charPairs[c], reader.xPos, reader.yPos, charTexts[c]);
             }
             else {
-                char firstChar;
                 char secondChar = '\0';
                 while(secondChar != ')') {
-                    firstChar = reader.getChar();
-                    if (firstChar == '\0')
-                        throw new LexicalException("Exception: unclosed comment");
-                    if (firstChar == '*')
-                        secondChar = reader.getChar();
+                    if (!reader.skipTo('*'))
+                        throwUnclosedComment();
+                    secondChar = reader.getChar();
                 }
             }
         }
         else
-            passToken(separators.get(Character.toString(c)), reader.xPos, reader.yPos, Character.toString(c));
+            passToken(charPairs[c], reader.xPos, reader.yPos, charTexts[c]);
     }
 
-    private void parseOperator(char c) {
+    private void parseOperator(char c) throws LexicalException {
         // special symbol
         char nextChar = '\0';
         // begin of word
@@ -361,7 +589,7 @@ public class Tokenizer {
                     passToken(new Pair(TokenType.OPERATOR, TokenValue.KEYWORD_ASSIGN),
                             reader.xPos, reader.yPos - 1, ":=");
                 else {
-                    passToken(operators.get(c + ""), reader.xPos, reader.yPos - 1, c + "");
+                    passToken(charPairs[c], reader.xPos, reader.yPos - 1, charTexts[c]);
                     if (nextChar != '\0')
                         reader.singleCharacterRollback();
                 }
@@ -374,8 +602,8 @@ public class Tokenizer {
                     passToken(new Pair(TokenType.OPERATOR, TokenValue.OP_LESS_OR_EQUAL),
                             reader.xPos, reader.yPos - 1, "<=");
                 else {
-                    passToken(operators.get(c + ""), reader.xPos, reader.yPos - 1, c + "");
-                    if (reader.lookAhead())
+                    passToken(charPairs[c], reader.xPos, reader.yPos - 1, charTexts[c]);
+                    if (nextChar != '\0')
                         reader.singleCharacterRollback();
                 }
                 break;
@@ -384,39 +612,45 @@ public class Tokenizer {
                     passToken(new Pair(TokenType.OPERATOR, TokenValue.OP_GREATER_OR_EQUAL),
                             reader.xPos, reader.yPos - 1, ">=");
                 else {
-                    passToken(operators.get(c + ""), reader.xPos, reader.yPos - 1, c + "");
-                    reader.singleCharacterRollback();
+                    passToken(charPairs[c], reader.xPos, reader.yPos - 1, charTexts[c]);
+                    if (nextChar != '\0') // nothing was read at the end of a line
+                        reader.singleCharacterRollback();
                 }
                 break;
             case '/' :
                 if (nextChar == '/')
                     reader.markCommentLineDoubleSlash();
                 else {
-                    passToken(operators.get(c + ""), reader.xPos, reader.yPos - 1, c + "");
-                    reader.singleCharacterRollback();
+                    passToken(charPairs[c], reader.xPos, reader.yPos - 1, charTexts[c]);
+                    if (nextChar != '\0')
+                        reader.singleCharacterRollback();
                 }
                 break;
             case '$' :
                 reader.singleCharacterRollback();
                 nextChar = reader.getChar();
-                while (String.valueOf(nextChar).matches("[0-9A-F]")) {
+                builder.append(c);
+                long valueOfHex = 0;
+                while (is(nextChar, HEX_DIGIT)) {
                     builder.append(nextChar);
+                    if (valueOfHex <= Integer.MAX_VALUE)
+                        valueOfHex = valueOfHex * 16 + Character.digit(nextChar, 16);
                     nextChar = reader.getChar();
                 }
-                Integer valueOfHex = Integer.parseInt(builder.toString(), 16);
-                passToken(new Pair(TokenType.HEX, TokenValue.CONST_HEX),
-                        x, y, "$" + builder.toString(), valueOfHex.toString());
+                if (builder.length() == 1 || valueOfHex > Integer.MAX_VALUE)
+                    throw new LexicalException("Exception: overflow");
+                passToken(hex, x, y, builder, valueOfHex, valueOfHex, -1);
                     reader.singleCharacterRollback();
                 break;
             default:
-                if (!operators.containsKey(nextChar + "")) {
-                    passToken(operators.get(c + ""), reader.xPos,
-                            nextChar == '\0' ? reader.yPos : reader.yPos - 1, c + "");
+                if (!is(nextChar, OPERATOR)) {
+                    passToken(charPairs[c], reader.xPos,
+                            nextChar == '\0' ? reader.yPos : reader.yPos - 1, charTexts[c]);
                     if (nextChar != '\0')
                         reader.singleCharacterRollback();
                     break;
                 }
-                passToken(operators.get(c + ""), reader.xPos, reader.yPos - 1, c + "");
+                passToken(charPairs[c], reader.xPos, reader.yPos - 1, charTexts[c]);
                 reader.singleCharacterRollback();
                 break;
         }
@@ -432,6 +666,7 @@ public class Tokenizer {
             char firstChar;
             char secondChar;
             while(true) {
+                reader.readUntil('\'', builder);
                 firstChar = reader.getChar();
                 if (firstChar == '\0')
                     throw new LexicalException("Exception: unclosed apostrophe");
@@ -447,11 +682,12 @@ public class Tokenizer {
                 builder.append(firstChar);
             }
             reader.singleCharacterRollback();
+            tokenOffset++; // the lexeme starts after the apostrophe
             passToken(new Pair(TokenType.STRING, TokenValue.CONST_STRING), x, y, builder.toString());
             return;
         }
 
-        while (String.valueOf(c).matches("[a-zA-Z0-9]|_|\'")) {
+        while (is(c, WORD_PART)) {
             builder.append(c);
             c = reader.getChar();
             // we moved to a new line
@@ -460,7 +696,7 @@ public class Tokenizer {
                 reader.singleCharacterRollback();
                 break;
             }
-            if (!String.valueOf(c).matches("[a-zA-Z0-9]|_|\'")) {
+            if (!is(c, WORD_PART)) {
                 prepareWordToken(x, y);
                 reader.singleCharacterRollback();
             }